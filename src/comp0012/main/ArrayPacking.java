@@ -0,0 +1,203 @@
+package comp0012.main;
+
+import org.apache.bcel.Constants;
+import org.apache.bcel.generic.*;
+
+/**
+ * Packs large constant array initialisers into a string constant.
+ * javac builds {@code static final int[] TABLE = {...}} in {@code <clinit>} with one
+ * {@code dup; push i; push v; iastore} run per element, six or more bytes of code each. An initialiser
+ * with many such runs is replaced by an {@code ldc} of a string holding the elements, one char per
+ * element (two for int and float), and a loop decoding it into a fresh array, which leaves the array on
+ * the stack exactly where the initialiser did. char arrays are simply {@code "...".toCharArray()}.
+ * long and double arrays would need four chars and long arithmetic per element and are left as they are.
+ */
+class ArrayPacking
+{
+    // fewest element stores worth a decode loop.
+    static final int MIN_PACKED_ELEMENTS = 32;
+    // longest string constant, in bytes of modified UTF-8.
+    private static final int MAX_STRING_BYTES = 65535;
+
+    private final MethodGen methodGen;
+    private final ConstantPoolGen cpgen;
+    private final InstructionList instructionList;
+    private final InstructionFactory factory;
+    private int base = -1; // first of the three locals used by the decode loops
+    private boolean changed;
+
+    private ArrayPacking(MethodGen methodGen, ConstantPoolGen cpgen) {
+        this.methodGen = methodGen;
+        this.cpgen = cpgen;
+        this.instructionList = methodGen.getInstructionList();
+        this.factory = new InstructionFactory(cpgen);
+    }
+
+    /**
+     * Packs the large constant array initialisers of the method.
+     *
+     * @param methodGen the method to optimise, its instruction list is changed in place.
+     * @param cpgen the constant pool of the class.
+     * @return true if any initialiser was packed.
+     */
+    static boolean optimize(MethodGen methodGen, ConstantPoolGen cpgen) {
+        return new ArrayPacking(methodGen, cpgen).run();
+    }
+
+    private boolean run() {
+        for (InstructionHandle handle : instructionList.getInstructionHandles()) {
+            if (handle.getInstruction() instanceof NEWARRAY) {
+                ConstantArrays.ConstantArray array = ConstantArrays.parse(handle, cpgen);
+                if (array != null && array.stores >= MIN_PACKED_ELEMENTS) {
+                    pack(array);
+                }
+            }
+        }
+        return changed;
+    }
+
+    /**
+     * Replaces the initialiser by a decode of its packed elements, if the elements fit in a string
+     * constant and the decode is smaller.
+     *
+     * @param array the initialiser.
+     */
+    private void pack(ConstantArrays.ConstantArray array) {
+        int charsPerElement = charsPerElement(array.elementType);
+        if (charsPerElement == 0) {
+            return;
+        }
+        StringBuilder packed = new StringBuilder(array.length * charsPerElement);
+        for (Object element : array.elements) {
+            int bits = array.elementType == Type.FLOAT ?
+                Float.floatToRawIntBits((Float) element) : (Integer) element;
+            if (charsPerElement == 2) {
+                packed.append((char) (bits >>> 16));
+            }
+            packed.append((char) bits);
+        }
+        if (utf8Length(packed) > MAX_STRING_BYTES) {
+            return;
+        }
+
+        InstructionList decode = decode(array, packed.toString(), charsPerElement);
+        if (byteLength(decode) >= byteLength(array.start, array.end)) {
+            decode.dispose();
+            return;
+        }
+        replace(array.start, array.end, decode);
+    }
+
+    /**
+     * Builds the code pushing a new array with the packed elements.
+     */
+    private InstructionList decode(ConstantArrays.ConstantArray array, String packed, int charsPerElement) {
+        InstructionList decode = new InstructionList();
+        decode.append(new PUSH(cpgen, packed));
+        if (array.elementType == Type.CHAR) {
+            decode.append(factory.createInvoke("java.lang.String", "toCharArray", new ArrayType(Type.CHAR, 1),
+                Type.NO_ARGS, Constants.INVOKEVIRTUAL));
+            return decode;
+        }
+        if (base < 0) {
+            methodGen.setMaxLocals();
+            base = methodGen.getMaxLocals();
+        }
+        int string = base;
+        int result = base + 1;
+        int index = base + 2;
+
+        // string = packed; result = new T[n]; for (index = 0; index < n; index++) result[index] = element;
+        decode.append(InstructionFactory.createStore(Type.STRING, string));
+        decode.append(new PUSH(cpgen, array.length));
+        decode.append(new NEWARRAY((BasicType) array.elementType));
+        decode.append(InstructionFactory.createStore(Type.OBJECT, result));
+        decode.append(new PUSH(cpgen, 0));
+        decode.append(InstructionFactory.createStore(Type.INT, index));
+        InstructionHandle loop = decode.append(InstructionFactory.createLoad(Type.INT, index));
+        decode.append(new PUSH(cpgen, array.length));
+        BranchHandle exit = decode.append(new IF_ICMPGE(null));
+        decode.append(InstructionFactory.createLoad(Type.OBJECT, result));
+        decode.append(InstructionFactory.createLoad(Type.INT, index));
+        appendCharAt(decode, string, index, charsPerElement, false);
+        if (charsPerElement == 2) {
+            // (string.charAt(2 * index) << 16) | string.charAt(2 * index + 1)
+            decode.append(new PUSH(cpgen, 16));
+            decode.append(InstructionConstants.ISHL);
+            appendCharAt(decode, string, index, charsPerElement, true);
+            decode.append(InstructionConstants.IOR);
+        }
+        if (array.elementType == Type.FLOAT) {
+            decode.append(factory.createInvoke("java.lang.Float", "intBitsToFloat", Type.FLOAT,
+                new Type[] { Type.INT }, Constants.INVOKESTATIC));
+        } else if (array.elementType == Type.BYTE || array.elementType == Type.SHORT) {
+            decode.append(factory.createCast(Type.INT, array.elementType));
+        }
+        decode.append(InstructionFactory.createArrayStore(array.elementType));
+        decode.append(new IINC(index, 1));
+        decode.append(new GOTO(loop));
+        exit.setTarget(decode.append(InstructionFactory.createLoad(Type.OBJECT, result)));
+        return decode;
+    }
+
+    // string.charAt(index), or string.charAt(2 * index) and string.charAt(2 * index + 1) for two chars.
+    private void appendCharAt(InstructionList decode, int string, int index, int charsPerElement, boolean second) {
+        decode.append(InstructionFactory.createLoad(Type.STRING, string));
+        decode.append(InstructionFactory.createLoad(Type.INT, index));
+        if (charsPerElement == 2) {
+            decode.append(InstructionConstants.ICONST_1);
+            decode.append(InstructionConstants.ISHL);
+            if (second) {
+                decode.append(InstructionConstants.ICONST_1);
+                decode.append(InstructionConstants.IADD);
+            }
+        }
+        decode.append(factory.createInvoke("java.lang.String", "charAt", Type.CHAR,
+            new Type[] { Type.INT }, Constants.INVOKEVIRTUAL));
+    }
+
+/////////////////// helper
+
+    // chars holding one element of the type, 0 for types that are not packed.
+    private static int charsPerElement(Type elementType) {
+        if (elementType == Type.INT || elementType == Type.FLOAT) {
+            return 2;
+        }
+        if (elementType == Type.SHORT || elementType == Type.BYTE || elementType == Type.CHAR ||
+            elementType == Type.BOOLEAN) {
+            return 1;
+        }
+        return 0;
+    }
+
+    // the length of the string in a class file, where \0 takes two bytes.
+    private static int utf8Length(CharSequence string) {
+        int length = 0;
+        for (int i = 0; i < string.length(); i++) {
+            char c = string.charAt(i);
+            length += (c != 0 && c < 0x80) ? 1 : c < 0x800 ? 2 : 3;
+        }
+        return length;
+    }
+
+    private static int byteLength(InstructionList list) {
+        return byteLength(list.getStart(), list.getEnd());
+    }
+
+    private static int byteLength(InstructionHandle start, InstructionHandle end) {
+        int length = 0;
+        for (InstructionHandle handle = start; handle != null; handle = handle.getNext()) {
+            length += handle.getInstruction().getLength();
+            if (handle == end) {
+                break;
+            }
+        }
+        return length;
+    }
+
+    // replaces the instructions from start to end with the decode.
+    private void replace(InstructionHandle start, InstructionHandle end, InstructionList decode) {
+        InstructionEdits.replace(methodGen, start, end, decode);
+        changed = true;
+    }
+}
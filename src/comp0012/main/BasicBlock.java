@@ -0,0 +1,226 @@
+package comp0012.main;
+
+import org.apache.bcel.generic.*;
+
+import java.util.*;
+
+/**
+ * A maximal straight-line run of instructions inside a method.
+ * Control can only enter a block at its first instruction and only leave it after its last one.
+ */
+class BasicBlock
+{
+    final InstructionHandle start;
+    final InstructionHandle end;
+    final List<BasicBlock> successors = new ArrayList<>();
+    final List<BasicBlock> predecessors = new ArrayList<>();
+
+    BasicBlock(InstructionHandle start, InstructionHandle end) {
+        this.start = start;
+        this.end = end;
+    }
+
+    /**
+     * Splits the instruction list of a method into basic blocks, in code order, and links each block
+     * to the blocks control can pass to next, including the handlers of the ranges protecting it.
+     * A new block starts at every branch target, after every branch, return or throw,
+     * and at the boundaries of every exception handler range, so a block is either wholly inside
+     * a protected range or wholly outside it.
+     *
+     * @param methodGen the method whose instructions are split.
+     * @return the blocks of the method, empty if the method has no code.
+     */
+    static List<BasicBlock> split(MethodGen methodGen) {
+        InstructionList instructionList = methodGen.getInstructionList();
+        List<BasicBlock> blocks = new ArrayList<>();
+        if (instructionList == null || instructionList.isEmpty()) {
+            return blocks;
+        }
+
+        Set<InstructionHandle> leaders = new HashSet<>();
+        leaders.add(instructionList.getStart());
+        for (InstructionHandle handle : instructionList.getInstructionHandles()) {
+            Instruction instruction = handle.getInstruction();
+            if (instruction instanceof BranchInstruction) {
+                leaders.add(((BranchInstruction) instruction).getTarget());
+                if (instruction instanceof Select) {
+                    Collections.addAll(leaders, ((Select) instruction).getTargets());
+                }
+            }
+            if (endsBlock(instruction) && handle.getNext() != null) {
+                leaders.add(handle.getNext());
+            }
+        }
+        for (CodeExceptionGen handler : methodGen.getExceptionHandlers()) {
+            leaders.add(handler.getStartPC());
+            leaders.add(handler.getHandlerPC());
+            if (handler.getEndPC().getNext() != null) {
+                leaders.add(handler.getEndPC().getNext());
+            }
+        }
+
+        InstructionHandle blockStart = instructionList.getStart();
+        for (InstructionHandle handle = blockStart; handle != null; handle = handle.getNext()) {
+            if (handle.getNext() == null || leaders.contains(handle.getNext())) {
+                blocks.add(new BasicBlock(blockStart, handle));
+                blockStart = handle.getNext();
+            }
+        }
+        linkBlocks(blocks);
+        linkHandlers(blocks, methodGen.getExceptionHandlers());
+        return blocks;
+    }
+
+    /**
+     * Fills in the successors and predecessors of every block from its last instruction.
+     *
+     * @param blocks the blocks of a method, in code order.
+     */
+    private static void linkBlocks(List<BasicBlock> blocks) {
+        HashMap<InstructionHandle, BasicBlock> blockAt = new HashMap<>();
+        for (BasicBlock block : blocks) {
+            blockAt.put(block.start, block);
+        }
+        for (int i = 0; i < blocks.size(); i++) {
+            BasicBlock block = blocks.get(i);
+            Instruction last = block.end.getInstruction();
+            if (last instanceof BranchInstruction) {
+                block.link(blockAt.get(((BranchInstruction) last).getTarget()));
+                if (last instanceof Select) {
+                    for (InstructionHandle target : ((Select) last).getTargets()) {
+                        block.link(blockAt.get(target));
+                    }
+                }
+            }
+            boolean fallsThrough = !(last instanceof GotoInstruction || last instanceof Select ||
+                last instanceof ReturnInstruction || last instanceof ATHROW || last instanceof RET);
+            if (fallsThrough && i + 1 < blocks.size()) {
+                block.link(blocks.get(i + 1));
+            }
+        }
+    }
+
+    /**
+     * Adds an exceptional edge from every block inside a protected range to the handler of the range.
+     *
+     * @param blocks the blocks of a method, in code order.
+     * @param handlers the exception handlers of the method.
+     */
+    private static void linkHandlers(List<BasicBlock> blocks, CodeExceptionGen[] handlers) {
+        HashMap<InstructionHandle, BasicBlock> blockAt = new HashMap<>();
+        for (BasicBlock block : blocks) {
+            blockAt.put(block.start, block);
+        }
+        for (CodeExceptionGen handler : handlers) {
+            BasicBlock handlerBlock = blockAt.get(handler.getHandlerPC());
+            boolean inside = false;
+            for (BasicBlock block : blocks) {
+                inside |= block.start == handler.getStartPC();
+                if (inside) {
+                    block.link(handlerBlock);
+                }
+                if (block.contains(handler.getEndPC())) {
+                    break;
+                }
+            }
+        }
+    }
+
+    /**
+     * Computes the dominators of every block: the blocks every path from the start of the method
+     * (along normal and exceptional edges) passes through to reach it, itself included.
+     * Blocks that cannot be reached have no dominators.
+     *
+     * @param blocks the blocks of a method, in code order, the first being its entry.
+     * @return block -> the blocks dominating it.
+     */
+    static Map<BasicBlock, Set<BasicBlock>> dominators(List<BasicBlock> blocks) {
+        Map<BasicBlock, Set<BasicBlock>> dominators = new HashMap<>();
+        if (blocks.isEmpty()) {
+            return dominators;
+        }
+        BasicBlock entry = blocks.get(0);
+        for (BasicBlock block : blocks) {
+            dominators.put(block, block == entry ? new HashSet<>(Collections.singleton(entry)) : new HashSet<>(blocks));
+        }
+        boolean changed = true;
+        while (changed) {
+            changed = false;
+            for (BasicBlock block : blocks) {
+                if (block == entry) {
+                    continue;
+                }
+                Set<BasicBlock> common = null;
+                for (BasicBlock predecessor : block.predecessors) {
+                    if (common == null) {
+                        common = new HashSet<>(dominators.get(predecessor));
+                    } else {
+                        common.retainAll(dominators.get(predecessor));
+                    }
+                }
+                if (common == null) {
+                    continue;
+                }
+                common.add(block);
+                if (!common.equals(dominators.get(block))) {
+                    dominators.put(block, common);
+                    changed = true;
+                }
+            }
+        }
+
+        // unreachable blocks kept the full set they started with.
+        Set<BasicBlock> reachable = new HashSet<>(Collections.singleton(entry));
+        Deque<BasicBlock> work = new ArrayDeque<>(reachable);
+        while (!work.isEmpty()) {
+            for (BasicBlock successor : work.pop().successors) {
+                if (reachable.add(successor)) {
+                    work.push(successor);
+                }
+            }
+        }
+        for (BasicBlock block : blocks) {
+            if (!reachable.contains(block)) {
+                dominators.get(block).clear();
+            }
+        }
+        return dominators;
+    }
+
+    private void link(BasicBlock successor) {
+        if (successor != null && !successors.contains(successor)) {
+            successors.add(successor);
+            successor.predecessors.add(this);
+        }
+    }
+
+    /**
+     * Checks whether the instruction lies inside this block.
+     *
+     * @param handle the instruction to look for.
+     * @return true if the handle is between start and end (inclusive).
+     */
+    boolean contains(InstructionHandle handle) {
+        for (InstructionHandle current = start; current != null; current = current.getNext()) {
+            if (current == handle) {
+                return true;
+            }
+            if (current == end) {
+                break;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Checks whether control never falls through from the instruction to a single successor,
+     * i.e. it is a branch, a return or a throw.
+     *
+     * @param instruction the instruction to check.
+     * @return true if the instruction terminates its basic block.
+     */
+    static boolean endsBlock(Instruction instruction) {
+        return instruction instanceof BranchInstruction || instruction instanceof ReturnInstruction ||
+            instruction instanceof ATHROW || instruction instanceof RET;
+    }
+}
@@ -0,0 +1,269 @@
+package comp0012.main;
+
+import org.apache.bcel.generic.*;
+
+import java.util.*;
+
+/**
+ * Removes boxing round trips such as {@code Integer.valueOf(x).intValue()}.
+ * A box is only removed when it cannot escape: either the unboxing call directly follows the
+ * {@code valueOf} call, or the box lives in a local variable that is only ever set from {@code valueOf}
+ * and only ever read to be unboxed. In the second case the local is replaced by a primitive local.
+ * Once the calls are gone the primitive values (and constants) flow straight into the other passes.
+ */
+class BoxingElimination
+{
+    // box class -> primitive type it wraps.
+    private static final HashMap<String, Type> BOXES = new HashMap<>();
+    // unboxing method name -> primitive type it returns.
+    private static final HashMap<String, Type> UNBOXES = new HashMap<>();
+
+    static {
+        BOXES.put("java.lang.Integer", Type.INT);
+        BOXES.put("java.lang.Long", Type.LONG);
+        BOXES.put("java.lang.Float", Type.FLOAT);
+        BOXES.put("java.lang.Double", Type.DOUBLE);
+        BOXES.put("java.lang.Short", Type.SHORT);
+        BOXES.put("java.lang.Byte", Type.BYTE);
+        BOXES.put("java.lang.Character", Type.CHAR);
+        BOXES.put("java.lang.Boolean", Type.BOOLEAN);
+
+        UNBOXES.put("intValue", Type.INT);
+        UNBOXES.put("longValue", Type.LONG);
+        UNBOXES.put("floatValue", Type.FLOAT);
+        UNBOXES.put("doubleValue", Type.DOUBLE);
+        UNBOXES.put("shortValue", Type.SHORT);
+        UNBOXES.put("byteValue", Type.BYTE);
+        UNBOXES.put("charValue", Type.CHAR);
+        UNBOXES.put("booleanValue", Type.BOOLEAN);
+    }
+
+    private final MethodGen methodGen;
+    private final ConstantPoolGen cpgen;
+    private final InstructionList instructionList;
+    private final InstructionFactory factory;
+    private boolean changed;
+
+    private BoxingElimination(MethodGen methodGen, ConstantPoolGen cpgen) {
+        this.methodGen = methodGen;
+        this.cpgen = cpgen;
+        this.instructionList = methodGen.getInstructionList();
+        this.factory = new InstructionFactory(cpgen);
+    }
+
+    /**
+     * Removes box/unbox pairs whose box does not escape the method.
+     *
+     * @param methodGen the method to optimise, its instruction list is changed in place.
+     * @param cpgen the constant pool of the class.
+     * @return true if any instruction was changed.
+     */
+    static boolean optimize(MethodGen methodGen, ConstantPoolGen cpgen) {
+        return new BoxingElimination(methodGen, cpgen).run();
+    }
+
+    private boolean run() {
+        removeAdjacentPairs();
+        unboxLocals();
+        return changed;
+    }
+
+    /**
+     * Rewrites {@code valueOf; [checkcast Box;] xxxValue} into the primitive conversion (if any) the
+     * round trip performs.
+     */
+    private void removeAdjacentPairs() {
+        for (InstructionHandle handle : instructionList.getInstructionHandles()) {
+            Type boxed = boxedType(handle.getInstruction());
+            if (boxed == null || handle.getNext() == null) {
+                continue;
+            }
+            InstructionHandle unbox = handle.getNext();
+            if (isCastTo(unbox.getInstruction(), boxed) && !InstructionEdits.isJumpTarget(unbox)) {
+                unbox = unbox.getNext();
+            }
+            Type unboxed = unbox == null ? null : unboxedType(unbox.getInstruction(), boxed);
+            if (unboxed == null || InstructionEdits.isJumpTarget(unbox)) {
+                continue;
+            }
+            replace(handle, unbox, conversion(boxed, unboxed));
+        }
+    }
+
+    /**
+     * Replaces reference locals that only ever hold fresh boxes and are only ever unboxed with
+     * primitive locals.
+     */
+    private void unboxLocals() {
+        int parameterWords = methodGen.isStatic() ? 0 : 1;
+        for (Type argument : methodGen.getArgumentTypes()) {
+            parameterWords += argument.getSize();
+        }
+
+        // slot -> every instruction that accesses it.
+        TreeMap<Integer, List<InstructionHandle>> accesses = new TreeMap<>();
+        for (InstructionHandle handle : instructionList.getInstructionHandles()) {
+            Instruction instruction = handle.getInstruction();
+            if (instruction instanceof LocalVariableInstruction || instruction instanceof RET) {
+                int index = ((IndexedInstruction) instruction).getIndex();
+                accesses.computeIfAbsent(index, slot -> new ArrayList<>()).add(handle);
+            }
+        }
+
+        methodGen.setMaxLocals();
+        int nextLocal = methodGen.getMaxLocals();
+        for (Map.Entry<Integer, List<InstructionHandle>> slot : accesses.entrySet()) {
+            if (slot.getKey() < parameterWords) {
+                continue;
+            }
+            Type boxed = boxedLocalType(slot.getValue());
+            if (boxed == null) {
+                continue;
+            }
+
+            Type stackType = stackType(boxed);
+            for (InstructionHandle handle : slot.getValue()) {
+                if (handle.getInstruction() instanceof ASTORE) {
+                    replace(handle.getPrev(), handle.getPrev(), new InstructionList());
+                    handle.setInstruction(InstructionFactory.createStore(stackType, nextLocal));
+                } else {
+                    InstructionHandle unbox = handle.getNext();
+                    Type unboxed = unboxedType(unbox.getInstruction(), boxed);
+                    handle.setInstruction(InstructionFactory.createLoad(stackType, nextLocal));
+                    replace(unbox, unbox, conversion(boxed, unboxed));
+                }
+            }
+            for (LocalVariableGen variable : methodGen.getLocalVariables()) {
+                if (variable.getIndex() == slot.getKey()) {
+                    methodGen.removeLocalVariable(variable); // the slot no longer holds the box
+                }
+            }
+            nextLocal += stackType.getSize();
+        }
+    }
+
+    /**
+     * Checks that a local is only set from {@code Box.valueOf} and only read by an unboxing call.
+     *
+     * @param accesses every instruction accessing the local.
+     * @return the primitive type of the box, or null if the local cannot be unboxed.
+     */
+    private Type boxedLocalType(List<InstructionHandle> accesses) {
+        Type boxed = null;
+        for (InstructionHandle handle : accesses) {
+            if (handle.getInstruction() instanceof ASTORE) {
+                InstructionHandle previous = handle.getPrev();
+                Type type = (previous == null || InstructionEdits.isJumpTarget(handle)) ? null : boxedType(previous.getInstruction());
+                if (type == null || (boxed != null && !type.equals(boxed))) {
+                    return null;
+                }
+                boxed = type;
+            } else if (!(handle.getInstruction() instanceof ALOAD)) {
+                return null;
+            }
+        }
+        if (boxed == null) {
+            return null;
+        }
+        for (InstructionHandle handle : accesses) {
+            InstructionHandle next = handle.getNext();
+            if (handle.getInstruction() instanceof ALOAD &&
+                (next == null || InstructionEdits.isJumpTarget(next) || unboxedType(next.getInstruction(), boxed) == null)) {
+                return null;
+            }
+        }
+        return boxed;
+    }
+
+/////////////////// helper
+
+    /**
+     * @return the primitive type boxed by a {@code Box.valueOf(primitive)} call, or null.
+     */
+    private Type boxedType(Instruction instruction) {
+        if (!(instruction instanceof INVOKESTATIC)) {
+            return null;
+        }
+        INVOKESTATIC invoke = (INVOKESTATIC) instruction;
+        ReferenceType owner = invoke.getReferenceType(cpgen);
+        if (!(owner instanceof ObjectType)) {
+            return null;
+        }
+        Type primitive = BOXES.get(((ObjectType) owner).getClassName());
+        Type[] arguments = invoke.getArgumentTypes(cpgen);
+        if (primitive == null || !invoke.getMethodName(cpgen).equals("valueOf") || arguments.length != 1 ||
+            !arguments[0].equals(primitive)) {
+            return null;
+        }
+        return primitive;
+    }
+
+    /**
+     * @return the primitive type returned by an unboxing call on a box of the given type, or null.
+     */
+    private Type unboxedType(Instruction instruction, Type boxed) {
+        if (!(instruction instanceof INVOKEVIRTUAL)) {
+            return null;
+        }
+        INVOKEVIRTUAL invoke = (INVOKEVIRTUAL) instruction;
+        ReferenceType owner = invoke.getReferenceType(cpgen);
+        if (!(owner instanceof ObjectType)) {
+            return null; // a method of an array, such as clone
+        }
+        String className = ((ObjectType) owner).getClassName();
+        boolean numeric = boxed != Type.CHAR && boxed != Type.BOOLEAN;
+        if (!boxed.equals(BOXES.get(className)) && !(numeric && className.equals("java.lang.Number"))) {
+            return null;
+        }
+        Type unboxed = UNBOXES.get(invoke.getMethodName(cpgen));
+        if (unboxed == null || invoke.getArgumentTypes(cpgen).length != 0 || !unboxed.equals(invoke.getReturnType(cpgen))) {
+            return null;
+        }
+        // Character and Boolean only unbox to themselves, numbers never unbox to char or boolean.
+        if ((!numeric || unboxed == Type.CHAR || unboxed == Type.BOOLEAN) && !unboxed.equals(boxed)) {
+            return null;
+        }
+        return unboxed;
+    }
+
+    private boolean isCastTo(Instruction instruction, Type boxed) {
+        if (!(instruction instanceof CHECKCAST)) {
+            return false;
+        }
+        Type target = ((CHECKCAST) instruction).getType(cpgen);
+        return target instanceof ObjectType && boxed.equals(BOXES.get(((ObjectType) target).getClassName()));
+    }
+
+    /**
+     * Builds the primitive conversion performed by boxing a value and unboxing it as another type,
+     * e.g. {@code Integer.valueOf(x).longValue()} is {@code I2L}.
+     */
+    private InstructionList conversion(Type boxed, Type unboxed) {
+        InstructionList conversion = new InstructionList();
+        Type from = stackType(boxed);
+        Type to = stackType(unboxed);
+        if (!from.equals(to)) {
+            conversion.append(factory.createCast(from, to));
+        }
+        boolean narrower = (unboxed == Type.BYTE && boxed != Type.BYTE) ||
+            (unboxed == Type.SHORT && boxed != Type.SHORT && boxed != Type.BYTE);
+        if (narrower) {
+            conversion.append(factory.createCast(Type.INT, unboxed));
+        }
+        return conversion;
+    }
+
+    // the type a primitive has on the operand stack and in locals.
+    private static Type stackType(Type primitive) {
+        if (primitive == Type.LONG || primitive == Type.FLOAT || primitive == Type.DOUBLE) {
+            return primitive;
+        }
+        return Type.INT;
+    }
+
+    // replaces the instructions from start to end with the given (possibly empty) list.
+    private void replace(InstructionHandle start, InstructionHandle end, InstructionList replacement) {
+        InstructionEdits.replace(methodGen, start, end, replacement);
+        changed = true;
+    }
+}
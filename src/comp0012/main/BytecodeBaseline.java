@@ -0,0 +1,206 @@
+package comp0012.main;
+
+import org.apache.bcel.classfile.ClassParser;
+import org.apache.bcel.classfile.Code;
+import org.apache.bcel.classfile.JavaClass;
+import org.apache.bcel.classfile.Method;
+import org.apache.bcel.generic.InstructionList;
+import org.kohsuke.args4j.CmdLineException;
+import org.kohsuke.args4j.CmdLineParser;
+import org.kohsuke.args4j.Option;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.*;
+import java.util.*;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+
+/**
+ * Checks the optimised classes against a checked-in baseline of their size, so a change that stops
+ * folding something is noticed even though the results stay correct.
+ * For every method of the classes in a package it records the code length, instruction count,
+ * max_stack, max_locals and the constant pool size of its class. With {@code -update} the baseline is
+ * rewritten from the classes; otherwise the numbers are compared with it, a table of every method that
+ * changed is printed, and the exit status is 1 if any number grew by more than the threshold.
+ */
+public class BytecodeBaseline {
+
+    static final String[] COLUMNS = { "code", "insns", "stack", "locals", "pool" };
+
+    @Option(name="-classes", required=true, usage="Root directory of the optimised classfiles")
+    private String classesRoot;
+
+    @Option(name="-baseline", required=true, usage="Baseline file to check against or update")
+    private String baselineFile;
+
+    @Option(name="-package", usage="Package whose classes are measured")
+    private String packageName = "comp0012.target";
+
+    @Option(name="-threshold", usage="Growth of a number, in percent, tolerated before it counts as a regression")
+    private double threshold = 0;
+
+    @Option(name="-update", usage="Rewrite the baseline from the classes instead of checking them")
+    private boolean update;
+
+    private void parseArguments(String args[])
+    {
+        CmdLineParser parser = new CmdLineParser(this);
+        parser.setUsageWidth(80);
+        try{
+            parser.parseArgument(args);
+        } catch (CmdLineException e) {
+            System.err.println(e.getMessage());
+            System.err.println("java BytecodeBaseline -classes dir -baseline file");
+            parser.printUsage(System.err);
+            System.err.println();
+            System.exit(-1);
+        }
+    }
+
+    public static void main(String args[]) throws IOException {
+        BytecodeBaseline baseline = new BytecodeBaseline();
+        baseline.parseArguments(args);
+
+        SortedMap<String, int[]> current = baseline.measure();
+        Path file = Paths.get(baseline.baselineFile);
+        if (baseline.update) {
+            write(file, current);
+            System.out.println("Wrote the baseline of " + current.size() + " methods to " + file);
+            return;
+        }
+        boolean regressed = baseline.compare(read(file), current);
+        if (regressed) {
+            System.out.println("Bytecode regressed beyond " + baseline.threshold + "% of the baseline " + file +
+                "; if this is intended, update it with -update (ant baseline.update)");
+            System.exit(1);
+        }
+    }
+
+    /**
+     * Measures every method of the classes of the package.
+     *
+     * @return method (class.name signature) -> its numbers, in the order of {@link #COLUMNS}.
+     */
+    SortedMap<String, int[]> measure() throws IOException {
+        SortedMap<String, int[]> methods = new TreeMap<>();
+        Path directory = Paths.get(classesRoot, packageName.split("\\."));
+        List<Path> classFiles;
+        try (Stream<Path> files = Files.list(directory)) {
+            classFiles = files.filter(file -> file.toString().endsWith(".class")).collect(Collectors.toList());
+        }
+        for (Path classFile : classFiles) {
+            JavaClass javaClass = new ClassParser(classFile.toString()).parse();
+            int pool = javaClass.getConstantPool().getLength();
+            for (Method method : javaClass.getMethods()) {
+                Code code = method.getCode();
+                if (code == null) {
+                    continue;
+                }
+                int instructions = new InstructionList(code.getCode()).getLength();
+                String name = javaClass.getClassName() + "." + method.getName() + " " + method.getSignature();
+                methods.put(name, new int[] { code.getCode().length, instructions, code.getMaxStack(),
+                    code.getMaxLocals(), pool });
+            }
+        }
+        return methods;
+    }
+
+    /**
+     * Prints a table of the methods whose numbers differ from the baseline.
+     *
+     * @param baseline the numbers checked in.
+     * @param current the numbers of the classes.
+     * @return true if any number grew by more than the threshold.
+     */
+    boolean compare(SortedMap<String, int[]> baseline, SortedMap<String, int[]> current) {
+        SortedSet<String> names = new TreeSet<>(baseline.keySet());
+        names.addAll(current.keySet());
+        int width = "method".length();
+        for (String name : names) {
+            width = Math.max(width, name.length());
+        }
+
+        StringBuilder table = new StringBuilder(String.format("%-" + width + "s", "method"));
+        for (String column : COLUMNS) {
+            table.append(String.format(" %14s", column));
+        }
+        table.append('\n');
+        boolean regressed = false;
+        int changed = 0;
+        for (String name : names) {
+            int[] before = baseline.get(name);
+            int[] after = current.get(name);
+            if (before != null && Arrays.equals(before, after)) {
+                continue;
+            }
+            changed++;
+            table.append(String.format("%-" + width + "s", name));
+            String status;
+            if (before == null) {
+                status = "new";
+                for (int value : after) {
+                    table.append(String.format(" %14s", "+" + value));
+                }
+            } else if (after == null) {
+                status = "removed";
+                for (int value : before) {
+                    table.append(String.format(" %14s", "-" + value));
+                }
+            } else {
+                boolean worse = false;
+                for (int i = 0; i < COLUMNS.length; i++) {
+                    table.append(String.format(" %14s", before[i] == after[i] ? String.valueOf(after[i]) :
+                        before[i] + " -> " + after[i]));
+                    worse |= after[i] > before[i] * (1 + threshold / 100);
+                }
+                status = worse ? "REGRESSED" : "ok";
+                regressed |= worse;
+            }
+            table.append("  ").append(status).append('\n');
+        }
+
+        if (changed == 0) {
+            System.out.println("All " + current.size() + " methods match the baseline");
+        } else {
+            System.out.print(table);
+            System.out.println(changed + " of " + names.size() + " methods differ from the baseline");
+        }
+        return regressed;
+    }
+
+/////////////////// baseline file
+
+    // one line per method: its name, then its numbers separated by tabs; # starts a comment.
+    static SortedMap<String, int[]> read(Path file) throws IOException {
+        SortedMap<String, int[]> methods = new TreeMap<>();
+        for (String line : Files.readAllLines(file, StandardCharsets.UTF_8)) {
+            if (line.isEmpty() || line.startsWith("#")) {
+                continue;
+            }
+            String[] fields = line.split("\t");
+            if (fields.length != COLUMNS.length + 1) {
+                throw new IOException("Malformed baseline line: " + line);
+            }
+            int[] values = new int[COLUMNS.length];
+            for (int i = 0; i < values.length; i++) {
+                values[i] = Integer.parseInt(fields[i + 1]);
+            }
+            methods.put(fields[0], values);
+        }
+        return methods;
+    }
+
+    static void write(Path file, SortedMap<String, int[]> methods) throws IOException {
+        List<String> lines = new ArrayList<>();
+        lines.add("# method\t" + String.join("\t", COLUMNS));
+        for (Map.Entry<String, int[]> method : methods.entrySet()) {
+            StringBuilder line = new StringBuilder(method.getKey());
+            for (int value : method.getValue()) {
+                line.append('\t').append(value);
+            }
+            lines.add(line.toString());
+        }
+        Files.write(file, lines, StandardCharsets.UTF_8);
+    }
+}
@@ -0,0 +1,347 @@
+package comp0012.main;
+
+import org.apache.bcel.Constants;
+import org.apache.bcel.generic.*;
+
+import java.util.*;
+
+/**
+ * Folds reads of arrays whose contents are known.
+ * An array allocated with a constant length ({@code push n; newarray T}) and stored into a local that is
+ * set nowhere else has a known length, so {@code arraylength} on it becomes a push of n. If the array is
+ * also filled only by the constant stores that directly follow its allocation (the code javac emits for
+ * {@code {1, 2, 3}} or for {@code a[0] = 1; a[1] = 2;} right after {@code new int[2]}) and never escapes,
+ * reads of it at constant indices become pushes of the element. Once every read is folded, the
+ * allocation itself is removed.
+ */
+class ConstantArrays
+{
+    /**
+     * An array built by {@code push n; newarray T} followed by a run of constant element stores.
+     */
+    static class ConstantArray {
+        final InstructionHandle start;    // the push of the length
+        final InstructionHandle newArray;
+        InstructionHandle end;            // the last instruction of the allocation and its stores
+        final Type elementType;           // null for arrays of references
+        final int length;
+        final Object[] elements;
+        int stores;
+
+        ConstantArray(InstructionHandle start, InstructionHandle newArray, Type elementType, int length) {
+            this.start = start;
+            this.newArray = newArray;
+            this.end = newArray;
+            this.elementType = elementType;
+            this.length = length;
+            this.elements = new Object[elementType == null ? 0 : length];
+            Object zero = defaultValue(elementType);
+            Arrays.fill(elements, zero);
+        }
+    }
+
+    private final MethodGen methodGen;
+    private final ConstantPoolGen cpgen;
+    private final InstructionList instructionList;
+    private final int parameterWords;
+    private boolean changed;
+
+    private ConstantArrays(MethodGen methodGen, ConstantPoolGen cpgen) {
+        this.methodGen = methodGen;
+        this.cpgen = cpgen;
+        this.instructionList = methodGen.getInstructionList();
+        int words = methodGen.isStatic() ? 0 : 1;
+        for (Type argument : methodGen.getArgumentTypes()) {
+            words += argument.getSize();
+        }
+        this.parameterWords = words;
+    }
+
+    /**
+     * Folds the lengths and constant elements of fresh arrays held in locals.
+     *
+     * @param methodGen the method to optimise, its instruction list is changed in place.
+     * @param cpgen the constant pool of the class.
+     * @return true if any instruction was changed.
+     */
+    static boolean optimize(MethodGen methodGen, ConstantPoolGen cpgen) {
+        return new ConstantArrays(methodGen, cpgen).run();
+    }
+
+    private boolean run() {
+        for (InstructionHandle handle : instructionList.getInstructionHandles()) {
+            if (handle.getInstruction() instanceof NEWARRAY || handle.getInstruction() instanceof ANEWARRAY) {
+                ConstantArray array = parse(handle, cpgen);
+                if (array != null) {
+                    foldLocalArray(array);
+                }
+            }
+        }
+        return changed;
+    }
+
+    /**
+     * Folds the reads of an array if it is stored straight into a local that holds nothing else.
+     *
+     * @param array the array allocated.
+     */
+    private void foldLocalArray(ConstantArray array) {
+        InstructionHandle store = array.end.getNext();
+        InstructionHandle dup = null; // dup; astore k leaves a copy on the stack
+        if (store != null && store.getInstruction() instanceof DUP && !InstructionEdits.isJumpTarget(store)) {
+            dup = store;
+            store = store.getNext();
+        }
+        if (store == null || !(store.getInstruction() instanceof ASTORE) || InstructionEdits.isJumpTarget(store)) {
+            return;
+        }
+        int slot = ((ASTORE) store.getInstruction()).getIndex();
+        if (slot < parameterWords) {
+            return;
+        }
+
+        // the copy left on the stack must go straight into a constant store, or it escapes.
+        boolean escapes = array.elementType == null;
+        InstructionHandle initialised = store;
+        if (dup != null && !escapes && addElementStore(array, store, cpgen)) {
+            initialised = array.end;
+        } else if (dup != null) {
+            escapes = true;
+        }
+        if (!escapes) {
+            initialised = addLocalStores(array, initialised, slot);
+        }
+
+        // every other access of the slot must be a load, and the array escapes unless loads only read it.
+        List<InstructionHandle> loads = new ArrayList<>();
+        for (InstructionHandle handle : instructionList.getInstructionHandles()) {
+            Instruction instruction = handle.getInstruction();
+            if (handle == store || !accesses(instruction, slot) || isInside(handle, store, initialised)) {
+                continue;
+            }
+            if (!(instruction instanceof ALOAD)) {
+                return;
+            }
+            loads.add(handle);
+            escapes |= !isRead(handle);
+        }
+
+        int folded = 0;
+        for (InstructionHandle load : loads) {
+            InstructionHandle next = load.getNext();
+            if (next.getInstruction() instanceof ARRAYLENGTH && !InstructionEdits.isJumpTarget(next)) {
+                replace(load, next, new PUSH(cpgen, array.length).getInstruction());
+                folded++;
+            } else if (!escapes) {
+                Integer index = intConstant(next);
+                InstructionHandle read = next.getNext();
+                if (index != null && index >= 0 && index < array.length && !InstructionEdits.isJumpTarget(next) && !InstructionEdits.isJumpTarget(read)) {
+                    replace(load, read, pushElement(array.elements[index]));
+                    folded++;
+                }
+            }
+        }
+
+        // nothing reads the array any more: it need not be built.
+        if (folded == loads.size() && !escapes) {
+            for (LocalVariableGen variable : methodGen.getLocalVariables()) {
+                if (variable.getIndex() == slot) {
+                    methodGen.removeLocalVariable(variable);
+                }
+            }
+            delete(array.start, initialised);
+        }
+    }
+
+    /**
+     * Adds the {@code aload k; push i; push v; Tastore} runs right after the array is stored to its contents.
+     *
+     * @param last the instruction the runs follow.
+     * @return the last instruction of the runs, or the one they follow.
+     */
+    private InstructionHandle addLocalStores(ConstantArray array, InstructionHandle last, int slot) {
+        while (true) {
+            InstructionHandle load = last.getNext();
+            if (load == null || !(load.getInstruction() instanceof ALOAD) ||
+                ((ALOAD) load.getInstruction()).getIndex() != slot || !addElementStore(array, load, cpgen)) {
+                break;
+            }
+            last = array.end;
+        }
+        return last;
+    }
+
+    // a load of the array followed by arraylength or an element read, which let nothing else see it.
+    private boolean isRead(InstructionHandle load) {
+        InstructionHandle next = load.getNext();
+        if (next == null) {
+            return false;
+        }
+        if (next.getInstruction() instanceof ARRAYLENGTH) {
+            return true;
+        }
+        InstructionHandle read = next.getNext();
+        boolean index = next.getInstruction() instanceof LoadInstruction || intConstant(next) != null;
+        return index && read != null && read.getInstruction() instanceof ArrayInstruction &&
+            !isStore(read.getInstruction());
+    }
+
+/////////////////// allocation parsing
+
+    /**
+     * Parses a fresh array allocation with a constant length and the constant element stores that
+     * directly follow it: {@code push n; newarray T; (dup; push i; push v; Tastore)*}.
+     * No instruction after the allocation's first one may be a jump target, and none of them can throw.
+     *
+     * @param newArray the {@code newarray} or {@code anewarray} instruction.
+     * @param cpgen the constant pool of the class.
+     * @return the array, or null if the length is not a constant.
+     */
+    static ConstantArray parse(InstructionHandle newArray, ConstantPoolGen cpgen) {
+        InstructionHandle start = newArray.getPrev();
+        Integer length = start == null ? null : intConstant(start, cpgen);
+        if (length == null || length < 0 || InstructionEdits.isJumpTarget(newArray)) {
+            return null;
+        }
+        Type elementType = newArray.getInstruction() instanceof NEWARRAY ?
+            ((ArrayType) ((NEWARRAY) newArray.getInstruction()).getType()).getElementType() : null;
+        ConstantArray array = new ConstantArray(start, newArray, elementType, length);
+        while (elementType != null) {
+            InstructionHandle dup = array.end.getNext();
+            if (dup == null || !(dup.getInstruction() instanceof DUP) || !addElementStore(array, dup, cpgen)) {
+                break;
+            }
+        }
+        return array;
+    }
+
+    /**
+     * Records {@code <array push>; push i; push v; Tastore} as a store of v at index i, if the index and
+     * value are constants of the right type.
+     *
+     * @param array the array stored into.
+     * @param reference the instruction pushing the array (dup or aload).
+     * @return true if the store was recorded, extending the end of the array to it.
+     */
+    private static boolean addElementStore(ConstantArray array, InstructionHandle reference, ConstantPoolGen cpgen) {
+        InstructionHandle indexPush = reference.getNext();
+        InstructionHandle valuePush = indexPush == null ? null : indexPush.getNext();
+        InstructionHandle store = valuePush == null ? null : valuePush.getNext();
+        if (store == null || InstructionEdits.isJumpTarget(reference) || InstructionEdits.isJumpTarget(indexPush) || InstructionEdits.isJumpTarget(valuePush) ||
+            InstructionEdits.isJumpTarget(store) || store.getInstruction().getOpcode() != storeOpcode(array.elementType)) {
+            return false;
+        }
+        Integer index = intConstant(indexPush, cpgen);
+        Object value = ValueNumbering.constantValue(valuePush.getInstruction(), cpgen);
+        if (index == null || index < 0 || index >= array.length || value == null ||
+            value.getClass() != defaultValue(array.elementType).getClass()) {
+            return false;
+        }
+        array.elements[index] = narrow(array.elementType, value);
+        array.end = store;
+        array.stores++;
+        return true;
+    }
+
+    /**
+     * @return the value an element of the given type holds after storing the value, as its load pushes it.
+     */
+    static Object narrow(Type elementType, Object value) {
+        int word = value instanceof Integer ? (Integer) value : 0;
+        switch (elementType.getType()) {
+            case Constants.T_BYTE: return (int) (byte) word;
+            case Constants.T_SHORT: return (int) (short) word;
+            case Constants.T_CHAR: return (int) (char) word;
+            case Constants.T_BOOLEAN: return word & 1;
+            default: return value;
+        }
+    }
+
+    /**
+     * @return the zero an element of the given type starts with, as its load pushes it.
+     */
+    static Object defaultValue(Type elementType) {
+        if (elementType == Type.LONG) {
+            return 0L;
+        } else if (elementType == Type.FLOAT) {
+            return 0.0f;
+        } else if (elementType == Type.DOUBLE) {
+            return 0.0;
+        }
+        return 0;
+    }
+
+    // the opcode storing an element of the type; byte and boolean arrays share bastore.
+    static short storeOpcode(Type elementType) {
+        if (elementType == null) {
+            return -1;
+        }
+        switch (elementType.getType()) {
+            case Constants.T_INT: return Constants.IASTORE;
+            case Constants.T_LONG: return Constants.LASTORE;
+            case Constants.T_FLOAT: return Constants.FASTORE;
+            case Constants.T_DOUBLE: return Constants.DASTORE;
+            case Constants.T_SHORT: return Constants.SASTORE;
+            case Constants.T_CHAR: return Constants.CASTORE;
+            default: return Constants.BASTORE;
+        }
+    }
+
+/////////////////// helper
+
+    private Integer intConstant(InstructionHandle handle) {
+        return intConstant(handle, cpgen);
+    }
+
+    private static Integer intConstant(InstructionHandle handle, ConstantPoolGen cpgen) {
+        Object value = handle == null ? null : ValueNumbering.constantValue(handle.getInstruction(), cpgen);
+        return value instanceof Integer ? (Integer) value : null;
+    }
+
+    private Instruction pushElement(Object value) {
+        return ValueNumbering.pushConstant(cpgen, (Number) value);
+    }
+
+    private static boolean isStore(Instruction instruction) {
+        return instruction instanceof IASTORE || instruction instanceof LASTORE || instruction instanceof FASTORE ||
+            instruction instanceof DASTORE || instruction instanceof AASTORE || instruction instanceof BASTORE ||
+            instruction instanceof CASTORE || instruction instanceof SASTORE;
+    }
+
+    // does the instruction read or write the local slot, possibly as the second word of a long or double?
+    private boolean accesses(Instruction instruction, int slot) {
+        if (instruction instanceof IINC || instruction instanceof RET) {
+            return ((IndexedInstruction) instruction).getIndex() == slot;
+        }
+        if (!(instruction instanceof LocalVariableInstruction)) {
+            return false;
+        }
+        LocalVariableInstruction variable = (LocalVariableInstruction) instruction;
+        int size = ((TypedInstruction) instruction).getType(cpgen).getSize();
+        return variable.getIndex() <= slot && slot < variable.getIndex() + size;
+    }
+
+    private static boolean isInside(InstructionHandle handle, InstructionHandle start, InstructionHandle end) {
+        for (InstructionHandle current = start; current != null; current = current.getNext()) {
+            if (current == handle) {
+                return true;
+            }
+            if (current == end) {
+                break;
+            }
+        }
+        return false;
+    }
+
+    // replaces the instructions from start to end with one instruction.
+    private void replace(InstructionHandle start, InstructionHandle end, Instruction replacement) {
+        InstructionEdits.replace(methodGen, start, end, replacement);
+        changed = true;
+    }
+
+    // deletes an allocation nothing reads.
+    private void delete(InstructionHandle start, InstructionHandle end) {
+        InstructionEdits.delete(methodGen, start, end);
+        changed = true;
+    }
+}
@@ -0,0 +1,181 @@
+package comp0012.main;
+
+import org.apache.bcel.generic.*;
+
+import java.util.*;
+
+/**
+ * Cleans up the exception handlers of a method after the other passes have folded its code.
+ * Every protected range is shrunk to the instructions inside it that can still throw, handlers
+ * whose range no longer contains any such instruction are removed, and code that became unreachable
+ * (typically the body of a removed handler) is deleted. The control flow graph used includes the
+ * exceptional edges, so handlers that can still be entered are always kept.
+ * Line numbers and local variable ranges are moved off deleted instructions, so debug information survives.
+ */
+class ExceptionRanges
+{
+    private final MethodGen methodGen;
+    private final ConstantPoolGen cpgen;
+    private final InstructionList instructionList;
+    private boolean changed;
+
+    private ExceptionRanges(MethodGen methodGen, ConstantPoolGen cpgen) {
+        this.methodGen = methodGen;
+        this.cpgen = cpgen;
+        this.instructionList = methodGen.getInstructionList();
+    }
+
+    /**
+     * Shrinks or removes the exception handler ranges of the method and deletes unreachable code.
+     *
+     * @param methodGen the method to optimise, its instruction list is changed in place.
+     * @param cpgen the constant pool of the class.
+     * @return true if any handler or instruction was changed.
+     */
+    static boolean optimize(MethodGen methodGen, ConstantPoolGen cpgen) {
+        return new ExceptionRanges(methodGen, cpgen).run();
+    }
+
+    private boolean run() {
+        if (instructionList == null || instructionList.isEmpty()) {
+            return false;
+        }
+        // removing dead code can empty another range, which can make another handler dead.
+        boolean progress = true;
+        while (progress) {
+            progress = shrinkRanges();
+            progress |= removeUnreachableCode();
+            changed |= progress;
+        }
+        return changed;
+    }
+
+    /**
+     * Moves the start and end of every protected range onto the first and last instruction in it that
+     * can throw, and removes the handlers of ranges where nothing can.
+     *
+     * @return true if any range changed.
+     */
+    private boolean shrinkRanges() {
+        boolean shrunk = false;
+        for (CodeExceptionGen handler : methodGen.getExceptionHandlers()) {
+            InstructionHandle first = null;
+            InstructionHandle last = null;
+            for (InstructionHandle handle = handler.getStartPC(); handle != null; handle = handle.getNext()) {
+                if (canThrow(handle.getInstruction())) {
+                    if (first == null) {
+                        first = handle;
+                    }
+                    last = handle;
+                }
+                if (handle == handler.getEndPC()) {
+                    break;
+                }
+            }
+
+            if (first == null) {
+                removeHandler(handler);
+                shrunk = true;
+            } else if (first != handler.getStartPC() || last != handler.getEndPC()) {
+                handler.setStartPC(first);
+                handler.setEndPC(last);
+                shrunk = true;
+            }
+        }
+        return shrunk;
+    }
+
+    /**
+     * Deletes the blocks that cannot be reached from the start of the method, following both
+     * normal and exceptional edges.
+     *
+     * @return true if any block was deleted.
+     */
+    private boolean removeUnreachableCode() {
+        List<BasicBlock> blocks = BasicBlock.split(methodGen);
+        Set<BasicBlock> reachable = new HashSet<>();
+        Deque<BasicBlock> work = new ArrayDeque<>();
+        reachable.add(blocks.get(0));
+        work.push(blocks.get(0));
+        while (!work.isEmpty()) {
+            for (BasicBlock successor : work.pop().successors) {
+                if (reachable.add(successor)) {
+                    work.push(successor);
+                }
+            }
+        }
+        if (reachable.size() == blocks.size()) {
+            return false;
+        }
+
+        // a range that only protects dead code goes with it.
+        instructionList.setPositions();
+        for (CodeExceptionGen handler : methodGen.getExceptionHandlers()) {
+            boolean live = false;
+            for (BasicBlock block : reachable) {
+                live |= inRange(block, handler);
+            }
+            if (!live) {
+                removeHandler(handler);
+            }
+        }
+
+        for (BasicBlock block : blocks) {
+            if (!reachable.contains(block)) {
+                delete(block.start, block.end);
+            }
+        }
+        removeJumpsToNext();
+        removeEmptyLocalVariables();
+        return true;
+    }
+
+    // a goto that jumped over deleted code, typically a handler, now only jumps to the next instruction.
+    private void removeJumpsToNext() {
+        for (InstructionHandle handle : instructionList.getInstructionHandles()) {
+            if (handle.getInstruction() instanceof GotoInstruction &&
+                ((GotoInstruction) handle.getInstruction()).getTarget() == handle.getNext()) {
+                delete(handle, handle);
+            }
+        }
+    }
+
+/////////////////// helper
+
+    /**
+     * Checks if the instruction may throw an exception a handler could catch.
+     * Pushes of numeric and string constants never do, even though {@code ldc} is declared to.
+     */
+    private boolean canThrow(Instruction instruction) {
+        return instruction instanceof ExceptionThrower && ValueNumbering.constantValue(instruction, cpgen) == null;
+    }
+
+    // MethodGen.removeExceptionHandler leaves the handler registered as a targeter of its instructions.
+    private void removeHandler(CodeExceptionGen handler) {
+        methodGen.removeExceptionHandler(handler);
+        handler.setStartPC(null);
+        handler.setEndPC(null);
+        handler.setHandlerPC(null);
+    }
+
+    private static boolean inRange(BasicBlock block, CodeExceptionGen handler) {
+        int position = block.start.getPosition();
+        return position >= handler.getStartPC().getPosition() && position <= handler.getEndPC().getPosition();
+    }
+
+    // deletes the dead instructions from start to end; branches into them can only come from other dead code.
+    private void delete(InstructionHandle start, InstructionHandle end) {
+        InstructionEdits.delete(methodGen, start, end);
+        changed = true;
+    }
+
+    // local variables whose whole range was dead.
+    private void removeEmptyLocalVariables() {
+        instructionList.setPositions();
+        for (LocalVariableGen variable : methodGen.getLocalVariables()) {
+            if (variable.getStart().getPosition() > variable.getEnd().getPosition()) {
+                methodGen.removeLocalVariable(variable);
+            }
+        }
+    }
+}
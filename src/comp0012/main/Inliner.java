@@ -0,0 +1,208 @@
+package comp0012.main;
+
+import org.apache.bcel.classfile.Method;
+import org.apache.bcel.generic.*;
+
+/**
+ * Inlines calls to small methods of the same class.
+ * A callee qualifies if it is static, or private and called on {@code this}, and if its code is a short
+ * straight-line sequence ending in its only return, without exception handlers. The arguments are
+ * stored into fresh locals of the caller and the callee's code is copied in place of the call, reading
+ * those locals, so the result is left on the stack exactly where the call left it. Once inlined, the
+ * callee's code is folded together with the caller's by the other passes.
+ */
+class Inliner
+{
+    // largest callee inlined, in bytes of code, and how much a caller may grow in total.
+    static final int MAX_INLINE_SIZE = 35;
+    static final int MAX_CALLER_GROWTH = 325;
+
+    private final MethodGen methodGen;
+    private final ClassGen classGen;
+    private final ConstantPoolGen cpgen;
+    private final InstructionList instructionList;
+    private int growth;
+
+    private Inliner(MethodGen methodGen, ClassGen classGen, ConstantPoolGen cpgen) {
+        this.methodGen = methodGen;
+        this.classGen = classGen;
+        this.cpgen = cpgen;
+        this.instructionList = methodGen.getInstructionList();
+    }
+
+    /**
+     * Inlines the calls the method makes to small methods of its own class.
+     *
+     * @param methodGen the method to optimise, its instruction list is changed in place.
+     * @param classGen the class declaring the method, where callees are looked up.
+     * @param cpgen the constant pool of the class.
+     * @return true if any call was inlined.
+     */
+    static boolean optimize(MethodGen methodGen, ClassGen classGen, ConstantPoolGen cpgen) {
+        return new Inliner(methodGen, classGen, cpgen).run();
+    }
+
+    private boolean run() {
+        boolean changed = false;
+        for (InstructionHandle handle : instructionList.getInstructionHandles()) {
+            if (!(handle.getInstruction() instanceof InvokeInstruction)) {
+                continue;
+            }
+            Method callee = inlineableCallee(handle);
+            if (callee != null && growth + callee.getCode().getCode().length <= MAX_CALLER_GROWTH) {
+                inline(handle, callee);
+                growth += callee.getCode().getCode().length;
+                changed = true;
+            }
+        }
+        return changed;
+    }
+
+    /**
+     * Finds the method a call invokes, if it can be inlined at this call site.
+     *
+     * @param call the call instruction.
+     * @return the callee, or null if the call must stay.
+     */
+    private Method inlineableCallee(InstructionHandle call) {
+        InvokeInstruction invoke = (InvokeInstruction) call.getInstruction();
+        if (!invokesOwnClass(invoke)) {
+            return null;
+        }
+        Method callee = classGen.containsMethod(invoke.getMethodName(cpgen), invoke.getSignature(cpgen));
+        if (callee == null || callee.getCode() == null || callee.isSynchronized() ||
+            callee.getCode().getCode().length > MAX_INLINE_SIZE || (callee.getName().equals(methodGen.getName()) &&
+            callee.getSignature().equals(methodGen.getSignature()))) {
+            return null;
+        }
+        if (invoke instanceof INVOKESTATIC) {
+            if (!callee.isStatic()) {
+                return null;
+            }
+        } else if (!(invoke instanceof INVOKESPECIAL || invoke instanceof INVOKEVIRTUAL) || callee.isStatic() ||
+            !callee.isPrivate() || callee.getName().startsWith("<") || !calledOnThis(call, invoke)) {
+            return null;
+        }
+        return isStraightLine(new MethodGen(callee, classGen.getClassName(), cpgen)) ? callee : null;
+    }
+
+    /**
+     * @return true if the call is to a method of the class being optimised, not of another class or an array.
+     */
+    private boolean invokesOwnClass(InvokeInstruction invoke) {
+        ReferenceType owner = invoke.getReferenceType(cpgen);
+        return owner instanceof ObjectType && ((ObjectType) owner).getClassName().equals(classGen.getClassName());
+    }
+
+    /**
+     * Checks that the callee's code is a run of instructions ending in its only return, without
+     * handlers or calls to itself, that leaves nothing on the stack but the returned value.
+     */
+    private boolean isStraightLine(MethodGen callee) {
+        InstructionList code = callee.getInstructionList();
+        if (callee.getExceptionHandlers().length > 0 || !(code.getEnd().getInstruction() instanceof ReturnInstruction)) {
+            return false;
+        }
+        int depth = 0;
+        for (InstructionHandle handle = code.getStart(); handle != code.getEnd(); handle = handle.getNext()) {
+            Instruction instruction = handle.getInstruction();
+            depth += instruction.produceStack(cpgen) - instruction.consumeStack(cpgen);
+            if (instruction instanceof BranchInstruction || instruction instanceof ReturnInstruction ||
+                instruction instanceof RET) {
+                return false;
+            }
+            if (instruction instanceof InvokeInstruction) {
+                InvokeInstruction invoke = (InvokeInstruction) instruction;
+                if (invokesOwnClass(invoke) &&
+                    invoke.getMethodName(cpgen).equals(callee.getName()) &&
+                    invoke.getSignature(cpgen).equals(callee.getSignature())) {
+                    return false;
+                }
+            }
+        }
+        return depth == callee.getReturnType().getSize();
+    }
+
+    /**
+     * Checks that the receiver of an instance call is {@code this}, i.e. never null: the arguments are
+     * each pushed by a single constant or load instruction right after {@code aload_0}, and the caller
+     * never overwrites local 0.
+     */
+    private boolean calledOnThis(InstructionHandle call, InvokeInstruction invoke) {
+        if (methodGen.isStatic()) {
+            return false;
+        }
+        InstructionHandle receiver = call;
+        for (int argument = 0; argument <= invoke.getArgumentTypes(cpgen).length; argument++) {
+            if (InstructionEdits.isJumpTarget(receiver)) {
+                return false;
+            }
+            receiver = receiver.getPrev();
+            if (receiver == null) {
+                return false;
+            }
+            Instruction instruction = receiver.getInstruction();
+            boolean push = instruction instanceof LoadInstruction || instruction instanceof ACONST_NULL ||
+                ValueNumbering.constantValue(instruction, cpgen) != null;
+            if (!push) {
+                return false;
+            }
+        }
+        if (!(receiver.getInstruction() instanceof ALOAD) || ((ALOAD) receiver.getInstruction()).getIndex() != 0) {
+            return false;
+        }
+        for (InstructionHandle handle : instructionList.getInstructionHandles()) {
+            if (handle.getInstruction() instanceof ASTORE && ((ASTORE) handle.getInstruction()).getIndex() == 0) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Replaces the call by the callee's code, reading its parameters from fresh locals of the caller.
+     *
+     * @param call the call instruction.
+     * @param callee the method called.
+     */
+    private void inline(InstructionHandle call, Method callee) {
+        methodGen.setMaxLocals();
+        int base = methodGen.getMaxLocals();
+        InstructionList inlined = new InstructionList();
+
+        // the arguments are on the stack in order, so they are stored last to first.
+        Type[] arguments = callee.getArgumentTypes();
+        int[] slots = new int[arguments.length];
+        int slot = callee.isStatic() ? 0 : 1;
+        for (int i = 0; i < arguments.length; i++) {
+            slots[i] = slot;
+            slot += arguments[i].getSize();
+        }
+        for (int i = arguments.length - 1; i >= 0; i--) {
+            inlined.append(InstructionFactory.createStore(arguments[i], base + slots[i]));
+        }
+        if (!callee.isStatic()) {
+            inlined.append(InstructionFactory.createStore(Type.OBJECT, base));
+        }
+
+        InstructionList code = new MethodGen(callee, classGen.getClassName(), cpgen).getInstructionList();
+        for (InstructionHandle handle = code.getStart(); handle != code.getEnd(); handle = handle.getNext()) {
+            Instruction instruction = handle.getInstruction();
+            if (instruction instanceof IINC) {
+                IINC increment = (IINC) instruction;
+                inlined.append(new IINC(base + increment.getIndex(), increment.getIncrement()));
+            } else if (instruction instanceof LocalVariableInstruction) {
+                LocalVariableInstruction copy = (LocalVariableInstruction) instruction.copy();
+                copy.setIndex(base + copy.getIndex());
+                inlined.append(copy);
+            } else {
+                inlined.append(instruction.copy());
+            }
+        }
+        if (inlined.isEmpty()) {
+            inlined.append(InstructionConstants.NOP); // a call to an empty void method with no arguments
+        }
+
+        InstructionEdits.replace(methodGen, call, call, inlined);
+    }
+}
@@ -0,0 +1,148 @@
+package comp0012.main;
+
+import org.apache.bcel.generic.*;
+
+import java.util.*;
+
+/**
+ * Deletes and replaces instructions for the passes, keeping what targets them valid.
+ * Branches, handler entries and the starts of ranges move to the code that now takes the place of the
+ * deleted instructions. The end of a protected or local variable range moves back to the last
+ * instruction kept before them (the end of the replacement, if there is one), never forward, so a range
+ * never grows over code it did not cover. A range whose code is deleted entirely goes with it.
+ */
+class InstructionEdits
+{
+    private InstructionEdits() {
+    }
+
+    /**
+     * Checks whether control can arrive at the instruction from anywhere but the instruction before it.
+     *
+     * @param handle the instruction.
+     * @return true if a branch or an exception handler range refers to it.
+     */
+    static boolean isJumpTarget(InstructionHandle handle) {
+        for (InstructionTargeter targeter : handle.getTargeters()) {
+            if (targeter instanceof BranchInstruction || targeter instanceof CodeExceptionGen) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Deletes the instructions from first to last (inclusive); what targeted them now targets the
+     * instruction after last.
+     *
+     * @param methodGen the method the instructions belong to.
+     * @param first the first instruction to delete.
+     * @param last the last instruction to delete.
+     */
+    static void delete(MethodGen methodGen, InstructionHandle first, InstructionHandle last) {
+        remove(methodGen, first, last, last.getNext(), false);
+    }
+
+    /**
+     * Replaces the instructions from first to last (inclusive) with the replacement; what targeted them
+     * now targets its first instruction. An empty replacement deletes them.
+     *
+     * @param methodGen the method the instructions belong to.
+     * @param first the first instruction to replace.
+     * @param last the last instruction to replace.
+     * @param replacement the instructions taking their place, moved into the method.
+     * @return the first instruction of the replacement, or the instruction after last if it was empty.
+     */
+    static InstructionHandle replace(MethodGen methodGen, InstructionHandle first, InstructionHandle last,
+                                     InstructionList replacement) {
+        if (replacement.isEmpty()) {
+            InstructionHandle next = last.getNext();
+            delete(methodGen, first, last);
+            return next;
+        }
+        InstructionHandle start = methodGen.getInstructionList().insert(first, replacement);
+        remove(methodGen, first, last, start, true);
+        return start;
+    }
+
+    /**
+     * Replaces the instructions from first to last (inclusive) with a single instruction.
+     *
+     * @param methodGen the method the instructions belong to.
+     * @param first the first instruction to replace.
+     * @param last the last instruction to replace.
+     * @param instruction the instruction taking their place.
+     * @return the handle of the instruction.
+     */
+    static InstructionHandle replace(MethodGen methodGen, InstructionHandle first, InstructionHandle last,
+                                     Instruction instruction) {
+        return replace(methodGen, first, last, new InstructionList(instruction));
+    }
+
+    private static void remove(MethodGen methodGen, InstructionHandle first, InstructionHandle last,
+                               InstructionHandle next, boolean replaced) {
+        InstructionHandle kept = first.getPrev();
+        try {
+            methodGen.getInstructionList().delete(first, last);
+        } catch (TargetLostException e) {
+            Set<InstructionHandle> lost = new HashSet<>(Arrays.asList(e.getTargets()));
+            for (InstructionHandle lostTarget : e.getTargets()) {
+                for (InstructionTargeter targeter : lostTarget.getTargeters()) {
+                    if (targeter instanceof LineNumberGen) {
+                        moveLineNumber(methodGen, (LineNumberGen) targeter, next);
+                    } else if (targeter instanceof CodeExceptionGen) {
+                        CodeExceptionGen handler = (CodeExceptionGen) targeter;
+                        if (!replaced && lost.contains(handler.getStartPC()) && lost.contains(handler.getEndPC())) {
+                            methodGen.removeExceptionHandler(handler);
+                            handler.setStartPC(null); // removeExceptionHandler leaves the handler a targeter
+                            handler.setEndPC(null);
+                            handler.setHandlerPC(null);
+                        } else {
+                            // updateTarget would move the start, end and handler of the range together.
+                            if (handler.getStartPC() == lostTarget) {
+                                handler.setStartPC(next);
+                            }
+                            if (handler.getEndPC() == lostTarget) {
+                                handler.setEndPC(kept);
+                            }
+                            if (handler.getHandlerPC() == lostTarget) {
+                                handler.setHandlerPC(next);
+                            }
+                        }
+                    } else if (targeter instanceof LocalVariableGen) {
+                        LocalVariableGen variable = (LocalVariableGen) targeter;
+                        if (!replaced && lost.contains(variable.getStart()) && lost.contains(variable.getEnd())) {
+                            methodGen.removeLocalVariable(variable);
+                        } else {
+                            if (variable.getStart() == lostTarget) {
+                                variable.setStart(next);
+                            }
+                            if (variable.getEnd() == lostTarget) {
+                                variable.setEnd(kept);
+                            }
+                        }
+                    } else {
+                        targeter.updateTarget(lostTarget, next);
+                    }
+                }
+            }
+        }
+    }
+
+    // a line number moves onto the next instruction unless that already starts a line.
+    private static void moveLineNumber(MethodGen methodGen, LineNumberGen lineNumber, InstructionHandle next) {
+        if (next != null) {
+            for (InstructionTargeter targeter : next.getTargeters()) {
+                if (targeter instanceof LineNumberGen) {
+                    next = null;
+                    break;
+                }
+            }
+        }
+        if (next == null) {
+            methodGen.removeLineNumber(lineNumber);
+        } else {
+            lineNumber.setInstruction(next);
+        }
+    }
+}
@@ -0,0 +1,454 @@
+package comp0012.main;
+
+import org.apache.bcel.generic.*;
+
+import java.util.*;
+
+/**
+ * Shrinks the local variable frame of a method in three steps:
+ * copy propagation inside each basic block (loads of a local that holds a copy of another local or of a
+ * constant load the original instead), removal of stores whose value is never read, and coalescing of
+ * local variable slots whose live ranges never overlap, using an interference graph.
+ * Slots are only merged with slots of the same type and width, so long/double pairs stay aligned.
+ */
+class LocalCoalescer
+{
+    // type tags of a slot, MIXED when the slot is used with more than one type.
+    private static final char MIXED = '?';
+
+    private final MethodGen methodGen;
+    private final ConstantPoolGen cpgen;
+    private final InstructionList instructionList;
+    private boolean changed;
+
+    // per-instruction liveness, in words of the local variable frame.
+    private InstructionHandle[] handles;
+    private BitSet[] liveOut;
+    private int frameSize;
+    private int parameterWords;
+
+    private LocalCoalescer(MethodGen methodGen, ConstantPoolGen cpgen) {
+        this.methodGen = methodGen;
+        this.cpgen = cpgen;
+        this.instructionList = methodGen.getInstructionList();
+        this.parameterWords = methodGen.isStatic() ? 0 : 1;
+        for (Type argument : methodGen.getArgumentTypes()) {
+            parameterWords += argument.getSize();
+        }
+    }
+
+    /**
+     * Propagates copies, removes dead stores and coalesces the local variable slots of the method.
+     *
+     * @param methodGen the method to optimise, its instruction list is changed in place.
+     * @param cpgen the constant pool of the class.
+     * @return true if any instruction was changed.
+     */
+    static boolean optimize(MethodGen methodGen, ConstantPoolGen cpgen) {
+        return new LocalCoalescer(methodGen, cpgen).run();
+    }
+
+    private boolean run() {
+        propagateCopies();
+        computeLiveness();
+        removeDeadStores();
+        computeLiveness();
+        coalesceSlots();
+        return changed;
+    }
+
+/////////////////// copy propagation
+
+    /**
+     * Replaces loads of locals holding a copy, i.e. locals last set by {@code xload t; xstore s} or
+     * {@code push c; xstore s} in the same block, by a load of t or a push of c.
+     */
+    private void propagateCopies() {
+        for (BasicBlock block : BasicBlock.split(methodGen)) {
+            // local -> instruction that reproduces its value (a load of the source local or a constant push)
+            HashMap<Integer, Instruction> copies = new HashMap<>();
+            for (InstructionHandle handle = block.start; ; handle = handle.getNext()) {
+                Instruction instruction = handle.getInstruction();
+                if (instruction instanceof LoadInstruction) {
+                    Instruction source = copies.get(((LoadInstruction) instruction).getIndex());
+                    if (source != null && sameType(source, (LoadInstruction) instruction)) {
+                        handle.setInstruction(source.copy());
+                        changed = true;
+                    }
+                } else if (instruction instanceof StoreInstruction || instruction instanceof IINC) {
+                    LocalVariableInstruction store = (LocalVariableInstruction) instruction;
+                    int size = store.getType(cpgen).getSize();
+                    invalidate(copies, store.getIndex(), size);
+                    InstructionHandle previous = handle.getPrev();
+                    if (store instanceof StoreInstruction && handle != block.start && isCopySource(previous.getInstruction())) {
+                        Instruction source = previous.getInstruction();
+                        boolean selfCopy = source instanceof LoadInstruction &&
+                            ((LoadInstruction) source).getIndex() == store.getIndex();
+                        if (!selfCopy) {
+                            copies.put(store.getIndex(), source);
+                        }
+                    }
+                }
+                if (handle == block.end) {
+                    break;
+                }
+            }
+        }
+    }
+
+    private boolean isCopySource(Instruction instruction) {
+        return instruction instanceof LoadInstruction || ValueNumbering.constantValue(instruction, cpgen) != null;
+    }
+
+    private boolean sameType(Instruction source, LoadInstruction load) {
+        return ((TypedInstruction) source).getType(cpgen).getSize() == load.getType(cpgen).getSize() &&
+            typeTag(source) == typeTag(load);
+    }
+
+    // forgets every copy into or out of the words index..index+size-1.
+    private void invalidate(HashMap<Integer, Instruction> copies, int index, int size) {
+        Iterator<Map.Entry<Integer, Instruction>> entries = copies.entrySet().iterator();
+        while (entries.hasNext()) {
+            Map.Entry<Integer, Instruction> entry = entries.next();
+            Instruction source = entry.getValue();
+            int sourceSize = ((TypedInstruction) source).getType(cpgen).getSize();
+            boolean overwritten = overlaps(entry.getKey(), sourceSize, index, size);
+            if (source instanceof LoadInstruction) {
+                overwritten |= overlaps(((LoadInstruction) source).getIndex(), sourceSize, index, size);
+            }
+            if (overwritten) {
+                entries.remove();
+            }
+        }
+    }
+
+    private static boolean overlaps(int first, int firstSize, int second, int secondSize) {
+        return first < second + secondSize && second < first + firstSize;
+    }
+
+/////////////////// liveness
+
+    /**
+     * Computes the words of the local variable frame that are live after each instruction, following
+     * normal successors and, for instructions inside a protected range, its exception handler.
+     */
+    private void computeLiveness() {
+        instructionList.setPositions();
+        methodGen.setMaxLocals();
+        frameSize = methodGen.getMaxLocals();
+        handles = instructionList.getInstructionHandles();
+        HashMap<InstructionHandle, Integer> indexOf = new HashMap<>();
+        for (int i = 0; i < handles.length; i++) {
+            indexOf.put(handles[i], i);
+        }
+
+        List<List<Integer>> successors = new ArrayList<>();
+        List<List<Integer>> handlers = new ArrayList<>();
+        for (int i = 0; i < handles.length; i++) {
+            List<Integer> next = new ArrayList<>();
+            Instruction instruction = handles[i].getInstruction();
+            if (instruction instanceof BranchInstruction) {
+                next.add(indexOf.get(((BranchInstruction) instruction).getTarget()));
+                if (instruction instanceof Select) {
+                    for (InstructionHandle target : ((Select) instruction).getTargets()) {
+                        next.add(indexOf.get(target));
+                    }
+                }
+            }
+            boolean fallsThrough = !(instruction instanceof GotoInstruction || instruction instanceof Select ||
+                instruction instanceof ReturnInstruction || instruction instanceof ATHROW);
+            if (fallsThrough && i + 1 < handles.length) {
+                next.add(i + 1);
+            }
+            successors.add(next);
+
+            List<Integer> catching = new ArrayList<>();
+            int position = handles[i].getPosition();
+            for (CodeExceptionGen handler : methodGen.getExceptionHandlers()) {
+                if (position >= handler.getStartPC().getPosition() && position <= handler.getEndPC().getPosition()) {
+                    catching.add(indexOf.get(handler.getHandlerPC()));
+                }
+            }
+            handlers.add(catching);
+        }
+
+        BitSet[] liveIn = new BitSet[handles.length];
+        liveOut = new BitSet[handles.length];
+        for (int i = 0; i < handles.length; i++) {
+            liveIn[i] = new BitSet(frameSize);
+            liveOut[i] = new BitSet(frameSize);
+        }
+        boolean updated = true;
+        while (updated) {
+            updated = false;
+            for (int i = handles.length - 1; i >= 0; i--) {
+                BitSet out = new BitSet(frameSize);
+                for (int successor : successors.get(i)) {
+                    out.or(liveIn[successor]);
+                }
+                BitSet in = (BitSet) out.clone();
+                Instruction instruction = handles[i].getInstruction();
+                if (instruction instanceof StoreInstruction) {
+                    StoreInstruction store = (StoreInstruction) instruction;
+                    in.clear(store.getIndex(), store.getIndex() + store.getType(cpgen).getSize());
+                } else if (instruction instanceof LoadInstruction || instruction instanceof IINC || instruction instanceof RET) {
+                    int index = ((IndexedInstruction) instruction).getIndex();
+                    int size = (instruction instanceof LoadInstruction) ? ((LoadInstruction) instruction).getType(cpgen).getSize() : 1;
+                    in.set(index, index + size);
+                }
+                // an exception can leave the instruction before it writes anything.
+                for (int handler : handlers.get(i)) {
+                    in.or(liveIn[handler]);
+                }
+                if (!in.equals(liveIn[i]) || !out.equals(liveOut[i])) {
+                    liveIn[i] = in;
+                    liveOut[i] = out;
+                    updated = true;
+                }
+            }
+        }
+    }
+
+/////////////////// dead store elimination
+
+    /**
+     * Removes stores and increments of locals that are not read afterwards. A dead store whose value is
+     * pushed by the instruction right before it is removed together with that push, otherwise the
+     * store becomes a pop.
+     */
+    private void removeDeadStores() {
+        for (int i = 0; i < handles.length; i++) {
+            InstructionHandle handle = handles[i];
+            Instruction instruction = handle.getInstruction();
+            if (!(instruction instanceof StoreInstruction || instruction instanceof IINC)) {
+                continue;
+            }
+            LocalVariableInstruction store = (LocalVariableInstruction) instruction;
+            int size = store.getType(cpgen).getSize();
+            if (liveOut[i].get(store.getIndex(), store.getIndex() + size).cardinality() > 0) {
+                continue;
+            }
+
+            InstructionHandle previous = handle.getPrev();
+            if (instruction instanceof IINC) {
+                delete(handle, handle);
+            } else if (previous != null && isCopySource(previous.getInstruction()) && !InstructionEdits.isJumpTarget(handle)) {
+                delete(previous, handle);
+            } else {
+                handle.setInstruction(InstructionFactory.createPop(size));
+            }
+            changed = true;
+        }
+    }
+
+    private void delete(InstructionHandle start, InstructionHandle end) {
+        InstructionEdits.delete(methodGen, start, end);
+    }
+
+/////////////////// slot coalescing
+
+    /**
+     * Merges local variable slots that are never live at the same time and hold the same type.
+     * Parameter slots keep their position, but other slots may move into them once they are dead.
+     * Slots used with several types or widths are left where they are.
+     */
+    private void coalesceSlots() {
+        // type of every slot, and whether any access to it covers two words.
+        char[] types = new char[frameSize];
+        boolean[] wide = new boolean[frameSize];
+        for (InstructionHandle handle : handles) {
+            if (handle.getInstruction() instanceof LocalVariableInstruction) {
+                LocalVariableInstruction variable = (LocalVariableInstruction) handle.getInstruction();
+                char tag = typeTag(variable);
+                int index = variable.getIndex();
+                types[index] = (types[index] == 0 || types[index] == tag) ? tag : MIXED;
+                wide[index] |= width(tag) == 2;
+            } else if (handle.getInstruction() instanceof RET) {
+                types[((RET) handle.getInstruction()).getIndex()] = MIXED;
+            }
+        }
+
+        // fixed slots keep their index; other slots may only join fixed slots that are joinable.
+        boolean[] fixed = new boolean[frameSize];
+        boolean[] joinable = new boolean[frameSize];
+        for (int slot = 0; slot < frameSize; slot++) {
+            if (wide[slot] && types[slot + 1] != 0) {
+                types[slot] = MIXED; // the second word is also used on its own
+                types[slot + 1] = MIXED;
+            }
+        }
+        for (int slot = 0; slot < frameSize; slot++) {
+            fixed[slot] = slot < parameterWords || types[slot] == MIXED;
+            joinable[slot] = types[slot] != MIXED && (methodGen.isStatic() || slot > 0); // never reuse 'this'
+        }
+
+        boolean[][] interference = buildInterference(types);
+
+        // assign every slot a new index: fixed slots stay, the others join the lowest compatible slot.
+        int limit = 2 * frameSize + 2;
+        int[] newIndex = new int[frameSize];
+        Arrays.fill(newIndex, -1);
+        List<List<Integer>> members = new ArrayList<>();
+        char[] colourTypes = new char[limit];
+        boolean[] occupied = new boolean[limit];
+        for (int i = 0; i < limit; i++) {
+            members.add(new ArrayList<>());
+        }
+        for (int slot = 0; slot < frameSize; slot++) {
+            if (types[slot] != 0 && fixed[slot]) {
+                assign(slot, slot, joinable[slot] ? types[slot] : MIXED, wide[slot], newIndex, members, colourTypes, occupied);
+            } else if (slot < parameterWords) {
+                newIndex[slot] = slot;
+                occupied[slot] = true; // unused parameter word, still part of the frame
+            }
+        }
+        for (int slot = 0; slot < frameSize; slot++) {
+            if (types[slot] == 0 || fixed[slot]) {
+                continue;
+            }
+            int target = -1;
+            for (int colour = 0; colour < limit && target < 0; colour++) {
+                if (colourTypes[colour] == types[slot] && compatible(slot, members.get(colour), interference)) {
+                    target = colour;
+                }
+            }
+            for (int colour = 0; target < 0; colour++) {
+                if (!occupied[colour] && (!wide[slot] || !occupied[colour + 1])) {
+                    target = colour;
+                }
+            }
+            assign(slot, target, types[slot], wide[slot], newIndex, members, colourTypes, occupied);
+        }
+
+        // debug entries must follow their slot, or go if the slot is no longer used at all.
+        renumberLocalVariableTable(newIndex);
+        boolean renamed = false;
+        for (int slot = 0; slot < frameSize; slot++) {
+            renamed |= newIndex[slot] >= 0 && newIndex[slot] != slot;
+        }
+        if (!renamed) {
+            return;
+        }
+        for (InstructionHandle handle : handles) {
+            Instruction instruction = handle.getInstruction();
+            if (instruction instanceof LocalVariableInstruction) {
+                LocalVariableInstruction variable = (LocalVariableInstruction) instruction;
+                int index = newIndex[variable.getIndex()];
+                if (index != variable.getIndex()) {
+                    handle.setInstruction(renumber(variable, index));
+                }
+            }
+        }
+        changed = true;
+    }
+
+    /**
+     * Builds the interference graph between slots: a slot written by an instruction interferes with
+     * every slot live after it.
+     */
+    private boolean[][] buildInterference(char[] types) {
+        boolean[][] interference = new boolean[frameSize][frameSize];
+        for (int i = 0; i < handles.length; i++) {
+            Instruction instruction = handles[i].getInstruction();
+            if (!(instruction instanceof StoreInstruction || instruction instanceof IINC)) {
+                continue;
+            }
+            int defined = ((LocalVariableInstruction) instruction).getIndex();
+            BitSet live = liveOut[i];
+            for (int word = live.nextSetBit(0); word >= 0; word = live.nextSetBit(word + 1)) {
+                int other = ownerOf(word, types);
+                if (other != defined) {
+                    interference[defined][other] = true;
+                    interference[other][defined] = true;
+                }
+            }
+        }
+        // parameters are all defined on entry.
+        for (int a = 0; a < parameterWords && a < frameSize; a++) {
+            for (int b = 0; b < parameterWords && b < frameSize; b++) {
+                interference[a][b] |= a != b;
+            }
+        }
+        return interference;
+    }
+
+    // the slot whose value occupies the given word (the second word of a long belongs to the slot before it).
+    private static int ownerOf(int word, char[] types) {
+        if (types[word] == 0 && word > 0 && width(types[word - 1]) == 2) {
+            return word - 1;
+        }
+        return word;
+    }
+
+    private static boolean compatible(int slot, List<Integer> members, boolean[][] interference) {
+        for (int member : members) {
+            if (interference[slot][member]) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private static void assign(int slot, int colour, char type, boolean wide, int[] newIndex,
+                               List<List<Integer>> members, char[] colourTypes, boolean[] occupied) {
+        newIndex[slot] = colour;
+        members.get(colour).add(slot);
+        colourTypes[colour] = type;
+        occupied[colour] = true;
+        if (wide) {
+            occupied[colour + 1] = true;
+        }
+    }
+
+    private void renumberLocalVariableTable(int[] newIndex) {
+        List<LocalVariableGen> kept = new ArrayList<>();
+        for (LocalVariableGen variable : methodGen.getLocalVariables()) {
+            int index = variable.getIndex() < newIndex.length ? newIndex[variable.getIndex()] : -1;
+            boolean clash = false;
+            for (LocalVariableGen other : kept) {
+                clash |= other.getIndex() == index && rangesOverlap(other, variable);
+            }
+            if (index < 0 || clash) {
+                methodGen.removeLocalVariable(variable); // the slot was removed or now belongs to another variable
+            } else {
+                variable.setIndex(index);
+                kept.add(variable);
+            }
+        }
+    }
+
+    private static boolean rangesOverlap(LocalVariableGen first, LocalVariableGen second) {
+        return first.getStart().getPosition() <= second.getEnd().getPosition() &&
+            second.getStart().getPosition() <= first.getEnd().getPosition();
+    }
+
+/////////////////// helper
+
+    private static LocalVariableInstruction renumber(LocalVariableInstruction variable, int index) {
+        if (variable instanceof IINC) {
+            return new IINC(index, ((IINC) variable).getIncrement());
+        }
+        LocalVariableInstruction copy = (LocalVariableInstruction) variable.copy();
+        copy.setIndex(index);
+        return copy;
+    }
+
+    private static int width(char tag) {
+        return (tag == 'J' || tag == 'D') ? 2 : 1;
+    }
+
+    // one letter per JVM local type: I (int, also byte/char/short/boolean), J (long), F, D, A (reference).
+    private char typeTag(Instruction instruction) {
+        Type type = ((TypedInstruction) instruction).getType(cpgen);
+        if (type == Type.LONG) {
+            return 'J';
+        } else if (type == Type.FLOAT) {
+            return 'F';
+        } else if (type == Type.DOUBLE) {
+            return 'D';
+        } else if (type == Type.INT || type == Type.SHORT || type == Type.BYTE || type == Type.CHAR || type == Type.BOOLEAN) {
+            return 'I';
+        }
+        return 'A';
+    }
+}
@@ -0,0 +1,518 @@
+package comp0012.main;
+
+import org.apache.bcel.generic.*;
+
+import java.util.*;
+
+/**
+ * Loop optimisations on natural loops of a method:
+ * small counted loops with a constant trip count are fully unrolled, with the loop counter replaced by
+ * its constant value in every copy of the body, and pure computations that do not depend on anything
+ * written inside a remaining loop are hoisted into a preheader in front of the loop header.
+ */
+class LoopOptimizer
+{
+    // unrolling limits: number of iterations and bytes of code the method may grow by.
+    static final int MAX_UNROLL_TRIPS = 16;
+    static final int MAX_UNROLL_GROWTH = 256;
+    // upper bound on transformations per method, each one restarts the loop analysis.
+    private static final int MAX_ROUNDS = 32;
+
+    // a natural loop: the header and every block that can reach a back edge without passing the header.
+    private static class Loop {
+        final BasicBlock header;
+        final Set<BasicBlock> blocks = new LinkedHashSet<>();
+        final Set<BasicBlock> latches = new HashSet<>(); // sources of the back edges
+
+        Loop(BasicBlock header) {
+            this.header = header;
+            blocks.add(header);
+        }
+
+        boolean contains(InstructionHandle handle) {
+            for (BasicBlock block : blocks) {
+                if (block.contains(handle)) {
+                    return true;
+                }
+            }
+            return false;
+        }
+    }
+
+    // a value on the abstract operand stack of a loop block.
+    private static class StackValue {
+        final int size;
+        final InstructionHandle start;
+        final InstructionHandle end;
+        final boolean invariant; // start..end is a contiguous, side effect free computation using no loop-written local
+        final boolean computed;  // start..end contains at least one operation
+        final Type type;
+
+        StackValue(int size, InstructionHandle start, InstructionHandle end, boolean invariant, boolean computed, Type type) {
+            this.size = size;
+            this.start = start;
+            this.end = end;
+            this.invariant = invariant;
+            this.computed = computed;
+            this.type = type;
+        }
+    }
+
+    private final MethodGen methodGen;
+    private final ConstantPoolGen cpgen;
+    private final InstructionList instructionList;
+    private final boolean unrollLoops;
+
+    private LoopOptimizer(MethodGen methodGen, ConstantPoolGen cpgen, boolean unrollLoops) {
+        this.methodGen = methodGen;
+        this.cpgen = cpgen;
+        this.instructionList = methodGen.getInstructionList();
+        this.unrollLoops = unrollLoops;
+    }
+
+    /**
+     * Unrolls small constant-trip-count loops and hoists loop-invariant computations.
+     *
+     * @param methodGen the method to optimise, its instruction list is changed in place.
+     * @param cpgen the constant pool of the class.
+     * @param unrollLoops false to only hoist invariants, unrolling grows the code and is kept for hot methods.
+     * @return true if any instruction was changed.
+     */
+    static boolean optimize(MethodGen methodGen, ConstantPoolGen cpgen, boolean unrollLoops) {
+        return new LoopOptimizer(methodGen, cpgen, unrollLoops).run();
+    }
+
+    private boolean run() {
+        boolean changed = false;
+        // every transformation invalidates the blocks, so the loops are recomputed after each one.
+        for (int round = 0; round < MAX_ROUNDS; round++) {
+            boolean roundChanged = false;
+            for (Loop loop : findLoops()) {
+                if ((unrollLoops && unroll(loop)) || hoistInvariants(loop)) {
+                    roundChanged = true;
+                    break;
+                }
+            }
+            if (!roundChanged) {
+                break;
+            }
+            changed = true;
+        }
+        return changed;
+    }
+
+    /**
+     * Finds the natural loops of the method, innermost (smallest) first.
+     * A back edge is an edge to a block that dominates its source, so the header is always the block
+     * the loop is entered through, wherever it sits in the code.
+     *
+     * @return the loops, one per header.
+     */
+    private List<Loop> findLoops() {
+        instructionList.setPositions();
+        LinkedHashMap<BasicBlock, Loop> loops = new LinkedHashMap<>();
+        List<BasicBlock> blocks = BasicBlock.split(methodGen);
+        Map<BasicBlock, Set<BasicBlock>> dominators = BasicBlock.dominators(blocks);
+        for (BasicBlock block : blocks) {
+            for (BasicBlock successor : block.successors) {
+                if (dominators.get(block).contains(successor)) {
+                    Loop loop = loops.get(successor);
+                    if (loop == null) {
+                        loop = new Loop(successor);
+                        loops.put(successor, loop);
+                    }
+                    loop.latches.add(block);
+                    collectLoopBlocks(loop, block);
+                }
+            }
+        }
+        List<Loop> sorted = new ArrayList<>(loops.values());
+        sorted.sort(Comparator.comparingInt(loop -> loop.blocks.size()));
+        return sorted;
+    }
+
+    private static void collectLoopBlocks(Loop loop, BasicBlock latch) {
+        Deque<BasicBlock> work = new ArrayDeque<>();
+        if (loop.blocks.add(latch)) {
+            work.push(latch);
+        }
+        while (!work.isEmpty()) {
+            for (BasicBlock predecessor : work.pop().predecessors) {
+                if (loop.blocks.add(predecessor)) {
+                    work.push(predecessor);
+                }
+            }
+        }
+    }
+
+/////////////////// unrolling
+
+    /**
+     * Fully unrolls a counted loop of the shape javac emits for {@code for (i = c; i < n; i += s)}:
+     * <pre>
+     *     push c; istore i
+     * H:  iload i; [push n]; if&lt;cond&gt; EXIT
+     *     body (straight line)
+     *     iinc i s; goto H
+     * EXIT:
+     * </pre>
+     * Each copy of the body loads the constant value of i instead of the local, and i is set to its
+     * exit value after the last copy. Inside a protected range the handler may read i, so every copy
+     * also stores its value of i first.
+     *
+     * @param loop the loop to unroll.
+     * @return true if the loop was unrolled.
+     */
+    private boolean unroll(Loop loop) {
+        if (loop.blocks.size() != 2) {
+            return false;
+        }
+        InstructionHandle header = loop.header.start;
+        if (!(header.getInstruction() instanceof ILOAD)) {
+            return false;
+        }
+        int counter = ((ILOAD) header.getInstruction()).getIndex();
+
+        // header: iload i; [push n]; if<cond> EXIT
+        InstructionHandle test = header.getNext();
+        Integer limit = 0;
+        if (!(test.getInstruction() instanceof IfInstruction)) {
+            limit = intConstant(test.getInstruction());
+            test = test.getNext();
+        }
+        if (limit == null || test != loop.header.end || !(test.getInstruction() instanceof IfInstruction)) {
+            return false;
+        }
+        IfInstruction condition = (IfInstruction) test.getInstruction();
+        if (condition.consumeStack(cpgen) != (test.getPrev() == header ? 1 : 2)) {
+            return false;
+        }
+
+        // body ... iinc i s; goto H, with EXIT right after the goto
+        BasicBlock body = null;
+        for (BasicBlock block : loop.blocks) {
+            if (block != loop.header) {
+                body = block;
+            }
+        }
+        InstructionHandle backEdge = body.end;
+        InstructionHandle increment = backEdge.getPrev();
+        if (body.start != test.getNext() || !(backEdge.getInstruction() instanceof GOTO) ||
+            ((GOTO) backEdge.getInstruction()).getTarget() != header || condition.getTarget() != backEdge.getNext() ||
+            increment == null || !(increment.getInstruction() instanceof IINC) ||
+            ((IINC) increment.getInstruction()).getIndex() != counter || !body.contains(increment)) {
+            return false;
+        }
+        int step = ((IINC) increment.getInstruction()).getIncrement();
+
+        // i = c right before the loop, and nothing else jumps into it.
+        InstructionHandle initialStore = header.getPrev();
+        if (initialStore == null || !(initialStore.getInstruction() instanceof ISTORE) ||
+            ((ISTORE) initialStore.getInstruction()).getIndex() != counter) {
+            return false;
+        }
+        Integer initial = intConstant(initialStore.getPrev() == null ? null : initialStore.getPrev().getInstruction());
+        if (initial == null || initialStore.hasTargeters()) {
+            return false;
+        }
+        for (InstructionTargeter targeter : header.getTargeters()) {
+            if (targeter instanceof BranchInstruction && targeter != backEdge.getInstruction()) {
+                return false;
+            }
+        }
+
+        int bodyLength = 0;
+        for (InstructionHandle handle = body.start; handle != increment; handle = handle.getNext()) {
+            Instruction instruction = handle.getInstruction();
+            if (writesLocal(instruction, counter) || instruction instanceof BranchInstruction) {
+                return false;
+            }
+            bodyLength += instruction.getLength();
+        }
+
+        // count the iterations, giving up once the loop is too long to unroll.
+        List<Integer> values = new ArrayList<>();
+        int value = initial;
+        while (!branchTaken(condition, value, limit)) {
+            if (values.size() == MAX_UNROLL_TRIPS || step == 0) {
+                return false;
+            }
+            values.add(value);
+            value += step;
+        }
+        if (!outsideHandlers(initialStore, backEdge)) {
+            return false;
+        }
+        int loopLength = backEdge.getPosition() + backEdge.getInstruction().getLength() - header.getPosition();
+        int copyLength = bodyLength + (insideHandler(initialStore, backEdge) ? 6 : 3);
+        if (values.size() * copyLength - loopLength > MAX_UNROLL_GROWTH) {
+            return false;
+        }
+
+        boolean protectedLoop = insideHandler(initialStore, backEdge);
+        InstructionList unrolled = new InstructionList();
+        for (int iteration : values) {
+            if (protectedLoop) {
+                unrolled.append(new PUSH(cpgen, iteration));
+                unrolled.append(new ISTORE(counter));
+            }
+            for (InstructionHandle handle = body.start; handle != increment; handle = handle.getNext()) {
+                Instruction instruction = handle.getInstruction();
+                if (instruction instanceof ILOAD && ((ILOAD) instruction).getIndex() == counter) {
+                    unrolled.append(new PUSH(cpgen, iteration));
+                } else {
+                    unrolled.append(instruction.copy());
+                }
+            }
+        }
+        unrolled.append(new PUSH(cpgen, value));
+        unrolled.append(new ISTORE(counter));
+
+        // a range ending at the back edge now ends with the unrolled loop, so it still covers all of it.
+        InstructionEdits.replace(methodGen, header, backEdge, unrolled);
+        return true;
+    }
+
+    /**
+     * Checks that no protected range starts, ends or is handled strictly inside the code from start to
+     * end, so the code can be rewritten as a whole: every range either misses it or encloses all of it.
+     *
+     * @param start the first instruction of the code.
+     * @param end the last instruction of the code.
+     * @return true if the exception handlers do not depend on the inside of the code.
+     */
+    private boolean outsideHandlers(InstructionHandle start, InstructionHandle end) {
+        int first = start.getPosition();
+        int last = end.getPosition();
+        for (CodeExceptionGen handler : methodGen.getExceptionHandlers()) {
+            int rangeStart = handler.getStartPC().getPosition();
+            int rangeEnd = handler.getEndPC().getPosition();
+            int handlerStart = handler.getHandlerPC().getPosition();
+            boolean misses = rangeEnd < first || rangeStart > last;
+            boolean encloses = rangeStart <= first && rangeEnd >= last;
+            if (!(misses || encloses) || (handlerStart > first && handlerStart <= last)) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Checks if a protected range covers the code from start to end.
+     *
+     * @param start the first instruction of the code.
+     * @param end the last instruction of the code.
+     * @return true if an exception thrown there can be caught inside the method.
+     */
+    private boolean insideHandler(InstructionHandle start, InstructionHandle end) {
+        int first = start.getPosition();
+        int last = end.getPosition();
+        for (CodeExceptionGen handler : methodGen.getExceptionHandlers()) {
+            if (handler.getStartPC().getPosition() <= last && handler.getEndPC().getPosition() >= first) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Evaluates the exit test of a counted loop for one value of its counter.
+     *
+     * @param condition the conditional branch that leaves the loop.
+     * @param value the value of the counter.
+     * @param limit the value it is compared to (zero for single operand comparisons).
+     * @return true if the branch is taken, i.e. the loop exits.
+     */
+    private static boolean branchTaken(IfInstruction condition, int value, int limit) {
+        switch (condition.getClass().getSimpleName()) {
+            case "IFEQ": case "IF_ICMPEQ": return value == limit;
+            case "IFNE": case "IF_ICMPNE": return value != limit;
+            case "IFLT": case "IF_ICMPLT": return value < limit;
+            case "IFGE": case "IF_ICMPGE": return value >= limit;
+            case "IFGT": case "IF_ICMPGT": return value > limit;
+            case "IFLE": case "IF_ICMPLE": return value <= limit;
+            default: return true; // reference comparisons never describe a counted loop, treat as an exit
+        }
+    }
+
+/////////////////// invariant code motion
+
+    /**
+     * Hoists the maximal loop-invariant computations of the loop into a preheader, each stored into
+     * a fresh local that the loop loads instead. Division and remainder on integers are never hoisted
+     * because they may throw on a path that would not have executed them.
+     *
+     * @param loop the loop to optimise.
+     * @return true if anything was hoisted.
+     */
+    private boolean hoistInvariants(Loop loop) {
+        InstructionHandle header = loop.header.start;
+        InstructionHandle beforeHeader = header.getPrev();
+        if (beforeHeader != null && loop.contains(beforeHeader) && !BasicBlock.endsBlock(beforeHeader.getInstruction())) {
+            return false; // the preheader would sit on the back edge
+        }
+        for (InstructionTargeter targeter : header.getTargeters()) {
+            if (targeter instanceof CodeExceptionGen) {
+                return false;
+            }
+        }
+        for (BasicBlock predecessor : loop.header.predecessors) {
+            if (loop.blocks.contains(predecessor) && !loop.latches.contains(predecessor)) {
+                return false; // entered from inside the loop other than by a back edge
+            }
+        }
+
+        Set<Integer> writtenLocals = new HashSet<>();
+        Set<Instruction> loopBranches = new HashSet<>();
+        for (BasicBlock block : loop.blocks) {
+            for (InstructionHandle handle = block.start; ; handle = handle.getNext()) {
+                Instruction instruction = handle.getInstruction();
+                if (instruction instanceof StoreInstruction) {
+                    StoreInstruction store = (StoreInstruction) instruction;
+                    writtenLocals.add(store.getIndex());
+                    writtenLocals.add(store.getIndex() + store.getType(cpgen).getSize() - 1);
+                } else if (instruction instanceof IINC) {
+                    writtenLocals.add(((IINC) instruction).getIndex());
+                } else if (instruction instanceof BranchInstruction) {
+                    loopBranches.add(instruction);
+                }
+                if (handle == block.end) {
+                    break;
+                }
+            }
+        }
+
+        List<StackValue> candidates = new ArrayList<>();
+        for (BasicBlock block : loop.blocks) {
+            findInvariants(block, writtenLocals, candidates);
+        }
+        if (candidates.isEmpty()) {
+            return false;
+        }
+
+        methodGen.setMaxLocals();
+        int nextLocal = methodGen.getMaxLocals();
+        InstructionList preheader = new InstructionList();
+        for (StackValue candidate : candidates) {
+            for (InstructionHandle handle = candidate.start; ; handle = handle.getNext()) {
+                preheader.append(handle.getInstruction().copy());
+                if (handle == candidate.end) {
+                    break;
+                }
+            }
+            preheader.append(InstructionFactory.createStore(candidate.type, nextLocal));
+            candidate.end.setInstruction(InstructionFactory.createLoad(candidate.type, nextLocal));
+            if (candidate.start != candidate.end) {
+                InstructionEdits.delete(methodGen, candidate.start, candidate.end.getPrev());
+            }
+            nextLocal += candidate.type.getSize();
+        }
+
+        InstructionHandle preheaderStart = instructionList.insert(header, preheader);
+        for (InstructionTargeter targeter : header.getTargeters()) {
+            if (targeter instanceof BranchInstruction && !loopBranches.contains(targeter)) {
+                targeter.updateTarget(header, preheaderStart);
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Simulates the operand stack of a loop block and collects its maximal invariant computations.
+     *
+     * @param block the block to scan.
+     * @param writtenLocals locals stored anywhere in the loop.
+     * @param candidates receives the invariant computations that are worth hoisting.
+     */
+    private void findInvariants(BasicBlock block, Set<Integer> writtenLocals, List<StackValue> candidates) {
+        List<StackValue> stack = new ArrayList<>();
+        for (InstructionHandle handle = block.start; ; handle = handle.getNext()) {
+            Instruction instruction = handle.getInstruction();
+            Object constant = ValueNumbering.constantValue(instruction, cpgen);
+            if (constant != null) {
+                Type type = ((TypedInstruction) instruction).getType(cpgen);
+                stack.add(new StackValue(type.getSize(), handle, handle, true, false, type));
+            } else if (instruction instanceof LoadInstruction) {
+                LoadInstruction load = (LoadInstruction) instruction;
+                Type type = load.getType(cpgen);
+                boolean invariant = !writtenLocals.contains(load.getIndex()) &&
+                    !writtenLocals.contains(load.getIndex() + type.getSize() - 1);
+                stack.add(new StackValue(type.getSize(), handle, handle, invariant, false, type));
+            } else if (isHoistableOperation(instruction)) {
+                int consumed = instruction.consumeStack(cpgen);
+                List<StackValue> operands = pop(stack, consumed);
+                boolean invariant = operands != null;
+                InstructionHandle expected = handle;
+                for (int i = operands == null ? -1 : operands.size() - 1; i >= 0; i--) {
+                    StackValue operand = operands.get(i);
+                    invariant &= operand.invariant && operand.end.getNext() == expected;
+                    expected = operand.start;
+                }
+                if (!invariant && operands != null) {
+                    addCandidates(operands, candidates);
+                }
+                Type type = ValueNumbering.isComparison(instruction) ? Type.INT : ((TypedInstruction) instruction).getType(cpgen);
+                InstructionHandle start = invariant ? operands.get(0).start : handle;
+                stack.add(new StackValue(instruction.produceStack(cpgen), start, handle, invariant, true, type));
+            } else {
+                int consumed = instruction.consumeStack(cpgen);
+                List<StackValue> operands = consumed < 0 ? new ArrayList<>(stack) : pop(stack, consumed);
+                if (consumed < 0) {
+                    stack.clear();
+                }
+                if (operands != null) {
+                    addCandidates(operands, candidates);
+                }
+                int produced = instruction.produceStack(cpgen);
+                if (produced > 0) {
+                    stack.add(new StackValue(produced, handle, handle, false, false, null));
+                }
+            }
+            if (handle == block.end) {
+                break;
+            }
+        }
+        addCandidates(stack, candidates);
+    }
+
+    private static void addCandidates(List<StackValue> values, List<StackValue> candidates) {
+        for (StackValue value : values) {
+            if (value.invariant && value.computed) {
+                candidates.add(value);
+            }
+        }
+    }
+
+    /**
+     * Pops whole values covering the given number of stack words.
+     *
+     * @return the popped values, bottom first, or null if the words do not match value boundaries.
+     */
+    private static List<StackValue> pop(List<StackValue> stack, int words) {
+        LinkedList<StackValue> popped = new LinkedList<>();
+        int count = 0;
+        while (count < words && !stack.isEmpty()) {
+            StackValue top = stack.remove(stack.size() - 1);
+            popped.addFirst(top);
+            count += top.size;
+        }
+        return count == words ? popped : null;
+    }
+
+    private static boolean isHoistableOperation(Instruction instruction) {
+        return ValueNumbering.isPureOperation(instruction) && !(instruction instanceof IDIV ||
+            instruction instanceof IREM || instruction instanceof LDIV || instruction instanceof LREM);
+    }
+
+/////////////////// helper
+
+    private Integer intConstant(Instruction instruction) {
+        Object value = instruction == null ? null : ValueNumbering.constantValue(instruction, cpgen);
+        return (value instanceof Integer) ? (Integer) value : null;
+    }
+
+    private static boolean writesLocal(Instruction instruction, int index) {
+        return (instruction instanceof StoreInstruction && ((StoreInstruction) instruction).getIndex() == index) ||
+            (instruction instanceof IINC && ((IINC) instruction).getIndex() == index);
+    }
+}
@@ -22,6 +22,18 @@ public class Main extends SimpleFileVisitor<Path> {
     @Option(name="-out",required=true, usage="Root directory where optimised classfiles will be stored")
     private String outputRoot;
 
+    @Option(name="-rules", usage="File of peephole rules to use instead of the built-in ones")
+    private String rulesFile;
+
+    @Option(name="-profile", usage="JFR recording whose execution samples decide how hard each method is optimised")
+    private String profileFile;
+
+    @Option(name="-pack-arrays", usage="Pack large constant array initialisers of static initialisers into strings")
+    private boolean packArrays;
+
+    private PeepholeOptimizer peephole;
+    private Profile profile;
+
     private void parseArguments(String args[])
     {
         CmdLineParser parser = new CmdLineParser(this);
@@ -41,6 +53,12 @@ public class Main extends SimpleFileVisitor<Path> {
 	System.out.println("Running COMP207p courswork-2");
         Main main = new Main();
         main.parseArguments(args);
+        if (main.rulesFile != null) {
+            main.peephole = PeepholeOptimizer.load(Paths.get(main.rulesFile));
+        }
+        if (main.profileFile != null) {
+            main.profile = Profile.load(Paths.get(main.profileFile));
+        }
         Files.walkFileTree(Paths.get(main.inputRoot), main);
     }
 
@@ -55,9 +73,17 @@ public class Main extends SimpleFileVisitor<Path> {
     @Override
     public FileVisitResult visitFile(Path file, BasicFileAttributes attrs) throws IOException {
         String fname = file.toString();
-        if(fname.endsWith(".class") && !fname.endsWith("Main.class") && !fname.endsWith("ConstantFolder.class")){
+        Path rel = Paths.get(inputRoot).relativize(file);
+        // the optimiser's own classes (Main, ConstantFolder and its passes) are not optimised
+        if(fname.endsWith(".class") && !rel.startsWith(Paths.get("comp0012", "main"))){
             ConstantFolder cf = new ConstantFolder(file.toString());
-            Path rel = Paths.get(inputRoot).relativize(file);
+            if (peephole != null) {
+                cf.setPeepholeRules(peephole);
+            }
+            if (profile != null) {
+                cf.setProfile(profile);
+            }
+            cf.setPackArrays(packArrays);
             cf.write(Paths.get(outputRoot, rel.toString()).toAbsolutePath().toString());
         }
         return super.visitFile(file, attrs);
@@ -0,0 +1,477 @@
+package comp0012.main;
+
+import org.apache.bcel.Constants;
+import org.apache.bcel.generic.*;
+
+import java.io.*;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.*;
+
+/**
+ * Peephole optimiser driven by a declarative rule set ({@code pattern => replacement}, one rule per line).
+ * The patterns are compiled into a trie keyed by opcode, so a method is matched in a single scan over its
+ * instructions, following at most one trie edge per instruction, without building any strings.
+ *
+ * <p>A pattern is a {@code ;} separated list of elements. An element is an opcode name ({@code iadd}),
+ * a group ({@code iconst}, {@code lconst}, {@code fconst}, {@code dconst} for any push of a constant of that
+ * type, {@code iload}, {@code istore}, ... for any form of that load or store) or several of them separated
+ * by {@code |}. A load or store element can bind its slot to a name ({@code istore:n; iload:n}), every
+ * element with the same name must then access the same slot.
+ *
+ * <p>A replacement is a {@code ;} separated list of no-operand opcode names and {@code $k} (a copy of the
+ * k-th matched instruction, counting from 1), or the single word {@code fold}, which evaluates the matched
+ * constants and operations and pushes the result. An empty replacement removes the match.
+ */
+class PeepholeOptimizer
+{
+    private static final String DEFAULT_RULES = "peephole.rules";
+    private static PeepholeOptimizer defaultRules;
+
+    // group name -> opcodes, and the type of constant the group pushes (constant groups only).
+    private static final HashMap<String, short[]> GROUPS = new HashMap<>();
+    private static final HashMap<String, Class<?>> CONSTANT_GROUPS = new HashMap<>();
+    private static final HashMap<String, Short> OPCODES = new HashMap<>();
+
+    static {
+        GROUPS.put("iconst", new short[] {Constants.ICONST_M1, Constants.ICONST_0, Constants.ICONST_1,
+            Constants.ICONST_2, Constants.ICONST_3, Constants.ICONST_4, Constants.ICONST_5, Constants.BIPUSH,
+            Constants.SIPUSH, Constants.LDC, Constants.LDC_W});
+        GROUPS.put("lconst", new short[] {Constants.LCONST_0, Constants.LCONST_1, Constants.LDC2_W});
+        GROUPS.put("fconst", new short[] {Constants.FCONST_0, Constants.FCONST_1, Constants.FCONST_2,
+            Constants.LDC, Constants.LDC_W});
+        GROUPS.put("dconst", new short[] {Constants.DCONST_0, Constants.DCONST_1, Constants.LDC2_W});
+        CONSTANT_GROUPS.put("iconst", Integer.class);
+        CONSTANT_GROUPS.put("lconst", Long.class);
+        CONSTANT_GROUPS.put("fconst", Float.class);
+        CONSTANT_GROUPS.put("dconst", Double.class);
+
+        GROUPS.put("iload", new short[] {Constants.ILOAD, Constants.ILOAD_0, Constants.ILOAD_1, Constants.ILOAD_2,
+            Constants.ILOAD_3});
+        GROUPS.put("lload", new short[] {Constants.LLOAD, Constants.LLOAD_0, Constants.LLOAD_1, Constants.LLOAD_2,
+            Constants.LLOAD_3});
+        GROUPS.put("fload", new short[] {Constants.FLOAD, Constants.FLOAD_0, Constants.FLOAD_1, Constants.FLOAD_2,
+            Constants.FLOAD_3});
+        GROUPS.put("dload", new short[] {Constants.DLOAD, Constants.DLOAD_0, Constants.DLOAD_1, Constants.DLOAD_2,
+            Constants.DLOAD_3});
+        GROUPS.put("aload", new short[] {Constants.ALOAD, Constants.ALOAD_0, Constants.ALOAD_1, Constants.ALOAD_2,
+            Constants.ALOAD_3});
+        GROUPS.put("istore", new short[] {Constants.ISTORE, Constants.ISTORE_0, Constants.ISTORE_1,
+            Constants.ISTORE_2, Constants.ISTORE_3});
+        GROUPS.put("lstore", new short[] {Constants.LSTORE, Constants.LSTORE_0, Constants.LSTORE_1,
+            Constants.LSTORE_2, Constants.LSTORE_3});
+        GROUPS.put("fstore", new short[] {Constants.FSTORE, Constants.FSTORE_0, Constants.FSTORE_1,
+            Constants.FSTORE_2, Constants.FSTORE_3});
+        GROUPS.put("dstore", new short[] {Constants.DSTORE, Constants.DSTORE_0, Constants.DSTORE_1,
+            Constants.DSTORE_2, Constants.DSTORE_3});
+        GROUPS.put("astore", new short[] {Constants.ASTORE, Constants.ASTORE_0, Constants.ASTORE_1,
+            Constants.ASTORE_2, Constants.ASTORE_3});
+
+        for (short opcode = 0; opcode < Constants.OPCODE_NAMES.length; opcode++) {
+            OPCODES.put(Constants.OPCODE_NAMES[opcode], opcode);
+        }
+    }
+
+    // one alternative of a pattern element: a set of opcodes, optionally restricted to a type of constant.
+    private static class Alternative {
+        final short[] opcodes;
+        final Class<?> constant;
+
+        Alternative(short[] opcodes, Class<?> constant) {
+            this.opcodes = opcodes;
+            this.constant = constant;
+        }
+    }
+
+    private static class Element {
+        final List<Alternative> alternatives = new ArrayList<>();
+        String slot; // name the accessed local is bound to, or null
+    }
+
+    private static class Rule {
+        final Element[] pattern;
+        final boolean fold;
+        // each entry is either a shared no-operand Instruction or the Integer index of a matched instruction.
+        final Object[] replacement;
+
+        Rule(Element[] pattern, boolean fold, Object[] replacement) {
+            this.pattern = pattern;
+            this.fold = fold;
+            this.replacement = replacement;
+        }
+    }
+
+    // a trie node: the rules whose pattern ends here, and the child for every opcode.
+    private static class Node {
+        final Node[] next = new Node[256];
+        final List<Rule> rules = new ArrayList<>();
+    }
+
+    private final Node root = new Node();
+    private int maxLength;
+
+    private PeepholeOptimizer() {
+    }
+
+    /**
+     * Reads and compiles a rule set.
+     *
+     * @param reader the rules, one per line; blank lines and text after {@code #} are ignored.
+     * @return the compiled optimiser.
+     * @throws IOException if the rules cannot be read.
+     * @throws IllegalArgumentException if a rule is malformed, the message gives its line.
+     */
+    static PeepholeOptimizer load(Reader reader) throws IOException {
+        PeepholeOptimizer optimizer = new PeepholeOptimizer();
+        BufferedReader lines = new BufferedReader(reader);
+        int lineNumber = 0;
+        for (String line = lines.readLine(); line != null; line = lines.readLine()) {
+            lineNumber++;
+            int comment = line.indexOf('#');
+            String text = (comment >= 0 ? line.substring(0, comment) : line).trim();
+            if (text.isEmpty()) {
+                continue;
+            }
+            try {
+                optimizer.add(parseRule(text));
+            } catch (IllegalArgumentException e) {
+                throw new IllegalArgumentException("peephole rule at line " + lineNumber + ": " + e.getMessage());
+            }
+        }
+        return optimizer;
+    }
+
+    /**
+     * Reads and compiles a rule set from a file.
+     *
+     * @param file the rule file.
+     * @return the compiled optimiser.
+     * @throws IOException if the file cannot be read.
+     */
+    static PeepholeOptimizer load(Path file) throws IOException {
+        try (Reader reader = Files.newBufferedReader(file, StandardCharsets.UTF_8)) {
+            return load(reader);
+        }
+    }
+
+    /**
+     * @return the optimiser for the rule set shipped next to this class, compiled once.
+     */
+    static synchronized PeepholeOptimizer defaultRules() {
+        if (defaultRules == null) {
+            InputStream rules = PeepholeOptimizer.class.getResourceAsStream(DEFAULT_RULES);
+            if (rules == null) {
+                throw new IllegalStateException("missing " + DEFAULT_RULES);
+            }
+            try (Reader reader = new InputStreamReader(rules, StandardCharsets.UTF_8)) {
+                defaultRules = load(reader);
+            } catch (IOException e) {
+                throw new UncheckedIOException(e);
+            }
+        }
+        return defaultRules;
+    }
+
+/////////////////// rule compilation
+
+    private static Rule parseRule(String text) {
+        int arrow = text.indexOf("=>");
+        if (arrow < 0 || text.indexOf("=>", arrow + 2) >= 0) {
+            throw new IllegalArgumentException("expected 'pattern => replacement' in '" + text + "'");
+        }
+        List<String> patternTokens = tokens(text.substring(0, arrow));
+        List<String> replacementTokens = tokens(text.substring(arrow + 2));
+        if (patternTokens.isEmpty()) {
+            throw new IllegalArgumentException("empty pattern in '" + text + "'");
+        }
+
+        Element[] pattern = new Element[patternTokens.size()];
+        for (int i = 0; i < pattern.length; i++) {
+            pattern[i] = parseElement(patternTokens.get(i));
+        }
+
+        boolean fold = replacementTokens.size() == 1 && replacementTokens.get(0).equals("fold");
+        Object[] replacement = new Object[fold ? 0 : replacementTokens.size()];
+        for (int i = 0; i < replacement.length; i++) {
+            String token = replacementTokens.get(i);
+            if (token.startsWith("$")) {
+                int index = parseIndex(token.substring(1));
+                if (index < 1 || index > pattern.length) {
+                    throw new IllegalArgumentException("no matched instruction " + token);
+                }
+                replacement[i] = index - 1;
+            } else {
+                Short opcode = OPCODES.get(token);
+                if (opcode == null || InstructionConstants.INSTRUCTIONS[opcode] == null) {
+                    throw new IllegalArgumentException("'" + token + "' is not an instruction without operands");
+                }
+                replacement[i] = InstructionConstants.INSTRUCTIONS[opcode];
+            }
+        }
+        return new Rule(pattern, fold, replacement);
+    }
+
+    private static Element parseElement(String token) {
+        Element element = new Element();
+        int colon = token.indexOf(':');
+        if (colon >= 0) {
+            element.slot = token.substring(colon + 1);
+            token = token.substring(0, colon);
+        }
+        for (String name : token.split("\\|")) {
+            if (GROUPS.containsKey(name)) {
+                element.alternatives.add(new Alternative(GROUPS.get(name), CONSTANT_GROUPS.get(name)));
+            } else if (OPCODES.containsKey(name)) {
+                element.alternatives.add(new Alternative(new short[] {OPCODES.get(name)}, null));
+            } else {
+                throw new IllegalArgumentException("unknown instruction or group '" + name + "'");
+            }
+        }
+        if (element.slot != null) {
+            for (Alternative alternative : element.alternatives) {
+                for (short opcode : alternative.opcodes) {
+                    if (!accessesLocal(opcode)) {
+                        throw new IllegalArgumentException("'" + token + "' does not access a local variable");
+                    }
+                }
+            }
+        }
+        return element;
+    }
+
+    private static List<String> tokens(String text) {
+        List<String> tokens = new ArrayList<>();
+        for (String token : text.split(";")) {
+            token = token.trim().toLowerCase();
+            if (!token.isEmpty()) {
+                tokens.add(token);
+            }
+        }
+        return tokens;
+    }
+
+    private static int parseIndex(String text) {
+        try {
+            return Integer.parseInt(text);
+        } catch (NumberFormatException e) {
+            throw new IllegalArgumentException("bad instruction index '$" + text + "'");
+        }
+    }
+
+    private static boolean accessesLocal(short opcode) {
+        return (opcode >= Constants.ILOAD && opcode <= Constants.ALOAD_3) ||
+            (opcode >= Constants.ISTORE && opcode <= Constants.ASTORE_3) || opcode == Constants.IINC;
+    }
+
+    // adds every opcode sequence the pattern can match to the trie.
+    private void add(Rule rule) {
+        maxLength = Math.max(maxLength, rule.pattern.length);
+        insert(root, rule, 0);
+    }
+
+    private void insert(Node node, Rule rule, int depth) {
+        if (depth == rule.pattern.length) {
+            if (!node.rules.contains(rule)) {
+                node.rules.add(rule);
+            }
+            return;
+        }
+        for (Alternative alternative : rule.pattern[depth].alternatives) {
+            for (short opcode : alternative.opcodes) {
+                if (node.next[opcode] == null) {
+                    node.next[opcode] = new Node();
+                }
+                insert(node.next[opcode], rule, depth + 1);
+            }
+        }
+    }
+
+/////////////////// matching
+
+    /**
+     * Applies the rules to a method until none matches.
+     * Each instruction is visited once; after a rewrite the scan only steps back far enough to see
+     * matches the rewrite may have created.
+     *
+     * @param methodGen the method to optimise, its instruction list is changed in place.
+     * @param cpgen the constant pool of the class.
+     * @return true if any instruction was changed.
+     */
+    boolean optimize(MethodGen methodGen, ConstantPoolGen cpgen) {
+        InstructionList instructionList = methodGen.getInstructionList();
+        if (instructionList == null || maxLength == 0) {
+            return false;
+        }
+        Matcher matcher = new Matcher(methodGen, cpgen);
+        // every rewrite must be paid for, so a rule set that rewrites in circles still terminates.
+        int budget = 2 * instructionList.getLength() + 16;
+        boolean changed = false;
+        InstructionHandle handle = instructionList.getStart();
+        while (handle != null) {
+            InstructionHandle rewritten = budget > 0 ? matcher.rewriteAt(handle) : null;
+            if (rewritten == null) {
+                handle = handle.getNext();
+                continue;
+            }
+            changed = true;
+            budget--;
+            handle = rewritten;
+            for (int i = 1; i < maxLength && handle.getPrev() != null; i++) {
+                handle = handle.getPrev();
+            }
+        }
+        return changed;
+    }
+
+    private class Matcher {
+        private final MethodGen methodGen;
+        private final ConstantPoolGen cpgen;
+        private final InstructionList instructionList;
+        private final InstructionHandle[] matched = new InstructionHandle[maxLength];
+        private final Node[] nodes = new Node[maxLength + 1];
+
+        Matcher(MethodGen methodGen, ConstantPoolGen cpgen) {
+            this.methodGen = methodGen;
+            this.cpgen = cpgen;
+            this.instructionList = methodGen.getInstructionList();
+        }
+
+        /**
+         * Rewrites the longest match starting at the instruction.
+         *
+         * @return the first instruction after the rewrite's start (the replacement, or what followed the
+         * removed match), or null if no rule applies.
+         */
+        InstructionHandle rewriteAt(InstructionHandle first) {
+            int length = 0;
+            Node node = root;
+            for (InstructionHandle handle = first; handle != null && length < maxLength; handle = handle.getNext()) {
+                // control may only enter a match at its first instruction.
+                if (length > 0 && InstructionEdits.isJumpTarget(handle)) {
+                    break;
+                }
+                node = node.next[handle.getInstruction().getOpcode() & 0xff];
+                if (node == null) {
+                    break;
+                }
+                matched[length++] = handle;
+                nodes[length] = node;
+            }
+
+            for (; length > 0; length--) {
+                for (Rule rule : nodes[length].rules) {
+                    InstructionList replacement = apply(rule);
+                    if (replacement != null && canReplace(matched[0], matched[length - 1], replacement)) {
+                        return replace(matched[0], matched[length - 1], replacement);
+                    }
+                }
+            }
+            return null;
+        }
+
+        // the replacement for the current match, or null if the match fails the rule's constraints.
+        private InstructionList apply(Rule rule) {
+            Element[] pattern = rule.pattern;
+            HashMap<String, Integer> slots = null;
+            for (int i = 0; i < pattern.length; i++) {
+                Instruction instruction = matched[i].getInstruction();
+                if (!matches(pattern[i], instruction)) {
+                    return null;
+                }
+                if (pattern[i].slot != null) {
+                    if (slots == null) {
+                        slots = new HashMap<>();
+                    }
+                    int index = ((IndexedInstruction) instruction).getIndex();
+                    Integer bound = slots.putIfAbsent(pattern[i].slot, index);
+                    if (bound != null && bound != index) {
+                        return null;
+                    }
+                }
+            }
+
+            InstructionList replacement = new InstructionList();
+            if (rule.fold) {
+                Number value = fold(pattern.length);
+                if (value == null) {
+                    return null;
+                }
+                replacement.append(ValueNumbering.pushConstant(cpgen, value));
+                return replacement;
+            }
+            for (Object part : rule.replacement) {
+                if (part instanceof Integer) {
+                    replacement.append(matched[(Integer) part].getInstruction().copy());
+                } else {
+                    replacement.append((Instruction) part);
+                }
+            }
+            return replacement;
+        }
+
+        private boolean matches(Element element, Instruction instruction) {
+            short opcode = instruction.getOpcode();
+            for (Alternative alternative : element.alternatives) {
+                for (short candidate : alternative.opcodes) {
+                    if (candidate == opcode && (alternative.constant == null ||
+                        alternative.constant.isInstance(ValueNumbering.constantValue(instruction, cpgen)))) {
+                        return true;
+                    }
+                }
+            }
+            return false;
+        }
+
+        // evaluates the matched constants and operations, null unless they leave exactly one number.
+        private Number fold(int length) {
+            List<Object> stack = new ArrayList<>();
+            for (int i = 0; i < length; i++) {
+                Instruction instruction = matched[i].getInstruction();
+                Object constant = ValueNumbering.constantValue(instruction, cpgen);
+                if (constant != null) {
+                    stack.add(constant);
+                    continue;
+                }
+                if (!ValueNumbering.isPureOperation(instruction)) {
+                    return null;
+                }
+                int operands = ValueNumbering.isUnary(instruction) ? 1 : 2;
+                if (stack.size() < operands) {
+                    return null;
+                }
+                Object second = operands == 2 ? stack.remove(stack.size() - 1) : null;
+                Number result = ValueNumbering.evaluate(instruction, stack.remove(stack.size() - 1), second);
+                if (result == null) {
+                    return null;
+                }
+                stack.add(result);
+            }
+            return stack.size() == 1 && stack.get(0) instanceof Number ? (Number) stack.get(0) : null;
+        }
+
+        // a range covering only the first instruction cannot be kept if the whole match disappears.
+        private boolean canReplace(InstructionHandle first, InstructionHandle last, InstructionList replacement) {
+            if (!replacement.isEmpty()) {
+                return true;
+            }
+            for (CodeExceptionGen handler : methodGen.getExceptionHandlers()) {
+                if (handler.getEndPC() == first && (handler.getStartPC() == first || first.getPrev() == null)) {
+                    return false;
+                }
+            }
+            for (LocalVariableGen variable : methodGen.getLocalVariables()) {
+                if (variable.getEnd() == first && (variable.getStart() == first || first.getPrev() == null)) {
+                    return false;
+                }
+            }
+            return last.getNext() != null || !first.hasTargeters();
+        }
+
+        // replaces the instructions from first to last, returning where the scan goes on.
+        private InstructionHandle replace(InstructionHandle first, InstructionHandle last, InstructionList replacement) {
+            InstructionHandle next = InstructionEdits.replace(methodGen, first, last, replacement);
+            return next != null ? next : instructionList.getEnd();
+        }
+    }
+}
@@ -0,0 +1,104 @@
+package comp0012.main;
+
+import jdk.jfr.consumer.RecordedEvent;
+import jdk.jfr.consumer.RecordedFrame;
+import jdk.jfr.consumer.RecordedMethod;
+import jdk.jfr.consumer.RecordingFile;
+
+import java.io.IOException;
+import java.nio.file.Path;
+import java.util.*;
+
+/**
+ * How hot each method is, read from the execution samples of a Java Flight Recorder recording.
+ * A sample counts for the method running at its top frame. The methods that together take
+ * {@link #HOT_SHARE} of all samples are hot, and so are their direct callers, which is where their
+ * calls get inlined. Other sampled methods are warm and methods never sampled are cold.
+ */
+class Profile
+{
+    /** How much optimisation a method is worth. */
+    enum Tier { HOT, WARM, COLD }
+
+    static final double HOT_SHARE = 0.8;
+    private static final String EXECUTION_SAMPLE = "jdk.ExecutionSample";
+
+    // method key -> samples with the method on top of the stack.
+    private final HashMap<String, Integer> samples = new HashMap<>();
+    // method key -> the methods it was called from in those samples.
+    private final HashMap<String, Set<String>> callers = new HashMap<>();
+    private final Set<String> hot = new HashSet<>();
+
+    private Profile() {
+    }
+
+    /**
+     * Reads the execution samples of a recording, e.g. one made with
+     * {@code java -XX:StartFlightRecording=filename=app.jfr ...}, and ranks the methods in it.
+     *
+     * @param recording the .jfr file.
+     * @return the profile.
+     * @throws IOException if the recording cannot be read.
+     */
+    static Profile load(Path recording) throws IOException {
+        Profile profile = new Profile();
+        try (RecordingFile file = new RecordingFile(recording)) {
+            while (file.hasMoreEvents()) {
+                RecordedEvent event = file.readEvent();
+                if (event.getEventType().getName().equals(EXECUTION_SAMPLE) && event.getStackTrace() != null) {
+                    profile.addSample(event.getStackTrace().getFrames());
+                }
+            }
+        }
+        profile.rank();
+        return profile;
+    }
+
+    private void addSample(List<RecordedFrame> frames) {
+        if (frames.isEmpty() || !frames.get(0).isJavaFrame()) {
+            return;
+        }
+        String top = key(frames.get(0).getMethod());
+        samples.merge(top, 1, Integer::sum);
+        if (frames.size() > 1 && frames.get(1).isJavaFrame()) {
+            callers.computeIfAbsent(top, method -> new HashSet<>()).add(key(frames.get(1).getMethod()));
+        }
+    }
+
+    // the hottest methods up to HOT_SHARE of the samples, and their callers.
+    private void rank() {
+        List<Map.Entry<String, Integer>> ranked = new ArrayList<>(samples.entrySet());
+        ranked.sort((first, second) -> second.getValue() - first.getValue());
+        int total = 0;
+        for (Map.Entry<String, Integer> entry : ranked) {
+            total += entry.getValue();
+        }
+        int covered = 0;
+        for (Map.Entry<String, Integer> entry : ranked) {
+            if (covered >= HOT_SHARE * total) {
+                break;
+            }
+            covered += entry.getValue();
+            hot.add(entry.getKey());
+            hot.addAll(callers.getOrDefault(entry.getKey(), Collections.emptySet()));
+        }
+    }
+
+    /**
+     * @param className the fully qualified name of the class declaring the method.
+     * @param methodName the name of the method.
+     * @param signature the descriptor of the method, e.g. {@code (I)J}.
+     * @return how hot the method was in the recording.
+     */
+    Tier tierOf(String className, String methodName, String signature) {
+        String key = className + "." + methodName + signature;
+        if (hot.contains(key)) {
+            return Tier.HOT;
+        }
+        return samples.containsKey(key) ? Tier.WARM : Tier.COLD;
+    }
+
+    private static String key(RecordedMethod method) {
+        return method.getType().getName() + "." + method.getName() + method.getDescriptor();
+    }
+}
@@ -0,0 +1,495 @@
+package comp0012.main;
+
+import org.apache.bcel.Constants;
+import org.apache.bcel.classfile.Constant;
+import org.apache.bcel.classfile.ConstantFloat;
+import org.apache.bcel.classfile.ConstantInteger;
+import org.apache.bcel.classfile.ConstantString;
+import org.apache.bcel.generic.*;
+
+import java.util.*;
+
+/**
+ * Local value numbering over the basic blocks of a method (common subexpression elimination).
+ * Every value on the operand stack and in a local variable gets a number, and two pure operations on
+ * the same numbers produce the same value. The first occurrence of a repeated expression is saved
+ * into a fresh local and every later occurrence inside the block is replaced by a load of that local.
+ * Operations whose operands are all numbered constants are folded into a push of the result.
+ */
+class ValueNumbering
+{
+    // a value on the operand stack, with the run of instructions that computed it.
+    private static class StackValue {
+        final int number;
+        final int size;
+        final InstructionHandle start;
+        final InstructionHandle end;
+        final boolean pure; // start..end is a contiguous, side effect free computation of the value
+
+        StackValue(int number, int size, InstructionHandle start, InstructionHandle end, boolean pure) {
+            this.number = number;
+            this.size = size;
+            this.start = start;
+            this.end = end;
+            this.pure = pure;
+        }
+    }
+
+    // the first computation of an expression in the current block.
+    private static class Expression {
+        final int number;
+        final InstructionHandle end;
+        final Type type;
+        int local = -1; // local holding the value, allocated once the expression is reused
+
+        Expression(int number, InstructionHandle end, Type type) {
+            this.number = number;
+            this.end = end;
+            this.type = type;
+        }
+    }
+
+    private final MethodGen methodGen;
+    private final ConstantPoolGen cpgen;
+    private final InstructionList instructionList;
+
+    private final List<StackValue> stack = new ArrayList<>();
+    private final HashMap<Integer, Integer> localNumbers = new HashMap<>();
+    private final HashMap<Object, Integer> constantNumbers = new HashMap<>();
+    private final HashMap<Integer, Object> numberConstants = new HashMap<>();
+    // keyed by opcode and operand numbers packed into a long, so lookups never build strings or arrays.
+    private final HashMap<Long, Expression> expressions = new HashMap<>();
+
+    private int nextNumber = 1;
+    private int nextLocal;
+    private boolean changed;
+
+    private ValueNumbering(MethodGen methodGen, ConstantPoolGen cpgen) {
+        this.methodGen = methodGen;
+        this.cpgen = cpgen;
+        this.instructionList = methodGen.getInstructionList();
+    }
+
+    /**
+     * Eliminates repeated pure expressions inside each basic block of the method.
+     *
+     * @param methodGen the method to optimise, its instruction list is changed in place.
+     * @param cpgen the constant pool of the class.
+     * @return true if any instruction was changed.
+     */
+    static boolean optimize(MethodGen methodGen, ConstantPoolGen cpgen) {
+        return new ValueNumbering(methodGen, cpgen).run();
+    }
+
+    private boolean run() {
+        methodGen.setMaxLocals();
+        nextLocal = methodGen.getMaxLocals();
+        for (BasicBlock block : BasicBlock.split(methodGen)) {
+            stack.clear();
+            localNumbers.clear();
+            expressions.clear();
+            InstructionHandle handle = block.start;
+            while (true) {
+                InstructionHandle next = handle.getNext();
+                numberInstruction(handle);
+                if (handle == block.end) {
+                    break;
+                }
+                handle = next;
+            }
+        }
+        return changed;
+    }
+
+    /**
+     * Updates the abstract stack and locals for one instruction, reusing an earlier result if possible.
+     *
+     * @param handle the instruction to number.
+     */
+    private void numberInstruction(InstructionHandle handle) {
+        Instruction instruction = handle.getInstruction();
+        Object constant = constantValue(instruction, cpgen);
+
+        if (constant != null) {
+            int size = (constant instanceof Long || constant instanceof Double) ? 2 : 1;
+            push(new StackValue(constantNumber(constant), size, handle, handle, true));
+        } else if (instruction instanceof LoadInstruction) {
+            LoadInstruction load = (LoadInstruction) instruction;
+            int size = load.getType(cpgen).getSize();
+            push(new StackValue(localNumber(load.getIndex()), size, handle, handle, true));
+        } else if (instruction instanceof StoreInstruction) {
+            StoreInstruction store = (StoreInstruction) instruction;
+            int size = store.getType(cpgen).getSize();
+            StackValue value = pop(size);
+            if (size == 2) {
+                localNumbers.remove(store.getIndex() + 1);
+            }
+            localNumbers.put(store.getIndex(), value != null ? value.number : nextNumber++);
+        } else if (instruction instanceof IINC) {
+            localNumbers.put(((IINC) instruction).getIndex(), nextNumber++);
+        } else if (isPureOperation(instruction)) {
+            numberOperation(handle);
+        } else if (instruction instanceof StackInstruction) {
+            numberStackInstruction(handle);
+        } else {
+            int consumed = instruction.consumeStack(cpgen);
+            if (consumed < 0) {
+                lost();
+            } else {
+                take(consumed);
+            }
+            int produced = instruction.produceStack(cpgen);
+            if (produced > 0) {
+                push(new StackValue(nextNumber++, produced, handle, handle, false));
+            }
+        }
+    }
+
+    /**
+     * Numbers an arithmetic, comparison or conversion instruction. If the same operation was already
+     * applied to the same operand numbers in this block, and the operands here were computed by the
+     * instructions immediately before it, the whole computation is replaced by a load.
+     *
+     * @param handle the handle of the operation.
+     */
+    private void numberOperation(InstructionHandle handle) {
+        Instruction instruction = handle.getInstruction();
+        int consumed = instruction.consumeStack(cpgen);
+        int size = instruction.produceStack(cpgen);
+        StackValue left;
+        StackValue right = null;
+
+        if (isUnary(instruction)) {
+            left = pop(consumed);
+        } else {
+            int rightSize = (instruction instanceof LSHL || instruction instanceof LSHR ||
+                instruction instanceof LUSHR) ? 1 : consumed / 2;
+            right = pop(rightSize);
+            left = pop(consumed - rightSize);
+            if (right == null) {
+                left = null;
+            }
+        }
+        if (left == null) {
+            push(new StackValue(nextNumber++, size, handle, handle, false));
+            return;
+        }
+
+        long key = ((long) instruction.getOpcode() << 48) | ((long) left.number << 24) |
+            (right == null ? 0 : right.number);
+        boolean contiguous = left.pure && (right == null
+            ? left.end.getNext() == handle
+            : right.pure && left.end.getNext() == right.start && right.end.getNext() == handle);
+
+        Number folded = contiguous ? evaluate(instruction, numberConstants.get(left.number),
+            right == null ? null : numberConstants.get(right.number)) : null;
+        if (folded != null) {
+            replace(left.start, handle, pushConstant(cpgen, folded));
+            push(new StackValue(constantNumber(folded), size, handle, handle, true));
+            return;
+        }
+
+        Expression previous = expressions.get(key);
+        if (previous == null) {
+            int number = nextNumber++;
+            expressions.put(key, new Expression(number, handle, resultType(instruction)));
+            push(new StackValue(number, size, contiguous ? left.start : handle, handle, contiguous));
+        } else if (contiguous) {
+            reuse(previous, left.start, handle);
+            push(new StackValue(previous.number, size, handle, handle, true));
+        } else {
+            push(new StackValue(previous.number, size, handle, handle, false));
+        }
+    }
+
+    /**
+     * Stores the first result of an expression into a local (once) and replaces a later computation
+     * of it with a load of that local.
+     *
+     * @param previous the first occurrence of the expression.
+     * @param start the first instruction of the repeated computation.
+     * @param end the operation that ends the repeated computation, it becomes the load.
+     */
+    private void reuse(Expression previous, InstructionHandle start, InstructionHandle end) {
+        if (previous.local < 0) {
+            previous.local = nextLocal;
+            nextLocal += previous.type.getSize();
+            InstructionList save = new InstructionList();
+            save.append(InstructionFactory.createDup(previous.type.getSize()));
+            save.append(InstructionFactory.createStore(previous.type, previous.local));
+            instructionList.append(previous.end, save);
+        }
+        replace(start, end, InstructionFactory.createLoad(previous.type, previous.local));
+    }
+
+    /**
+     * Replaces the instructions from start to end with a single instruction, kept in the end handle.
+     *
+     * @param start the first instruction to replace.
+     * @param end the last instruction to replace.
+     * @param instruction the instruction pushing the same value.
+     */
+    private void replace(InstructionHandle start, InstructionHandle end, Instruction instruction) {
+        end.setInstruction(instruction);
+        if (start != end) {
+            InstructionEdits.delete(methodGen, start, end.getPrev());
+        }
+        changed = true;
+    }
+
+    /**
+     * Moves the stack entries a dup, swap or pop moves. Every word keeps the number of the value it
+     * belongs to, so a copy is the same value as its original; the entries moved are no longer a
+     * contiguous computation right before their consumer.
+     *
+     * @param handle the handle of the stack instruction.
+     */
+    private void numberStackInstruction(InstructionHandle handle) {
+        switch (handle.getInstruction().getOpcode()) {
+            case Constants.POP: take(1); break;
+            case Constants.POP2: take(2); break;
+            case Constants.DUP: duplicate(handle, 1, 0); break;
+            case Constants.DUP_X1: duplicate(handle, 1, 1); break;
+            case Constants.DUP_X2: duplicate(handle, 1, 2); break;
+            case Constants.DUP2: duplicate(handle, 2, 0); break;
+            case Constants.DUP2_X1: duplicate(handle, 2, 1); break;
+            case Constants.DUP2_X2: duplicate(handle, 2, 2); break;
+            case Constants.SWAP: {
+                List<StackValue> top = take(1);
+                List<StackValue> under = top == null ? null : take(1);
+                if (under != null) {
+                    pushMoved(handle, top);
+                    pushMoved(handle, under);
+                }
+                break;
+            }
+            default: lost();
+        }
+    }
+
+    /**
+     * Copies the top words of the stack below the words under them, as the dup instructions do.
+     *
+     * @param handle the handle of the dup instruction.
+     * @param copied number of words copied.
+     * @param skipped number of words the copy goes under.
+     */
+    private void duplicate(InstructionHandle handle, int copied, int skipped) {
+        List<StackValue> top = take(copied);
+        List<StackValue> under = top == null ? null : take(skipped);
+        if (under != null) {
+            pushMoved(handle, top);
+            pushMoved(handle, under);
+            pushMoved(handle, top);
+        }
+    }
+
+    private void pushMoved(InstructionHandle handle, List<StackValue> values) {
+        for (StackValue value : values) {
+            push(new StackValue(value.number, value.size, handle, handle, false));
+        }
+    }
+
+    /**
+     * Pops the given number of stack words.
+     *
+     * @param words number of words to pop.
+     * @return the popped value if the words were exactly one tracked value, null otherwise.
+     */
+    private StackValue pop(int words) {
+        List<StackValue> values = take(words);
+        return (values != null && values.size() == 1) ? values.get(0) : null;
+    }
+
+    /**
+     * Pops the values making up the given number of stack words. If the words are not whole values the
+     * stack is not tracked (it started with values pushed before the block, or split a long or double),
+     * so the model is dropped for the rest of the block.
+     *
+     * @param words number of words to pop.
+     * @return the popped values, deepest first, or null if the model was dropped.
+     */
+    private List<StackValue> take(int words) {
+        LinkedList<StackValue> values = new LinkedList<>();
+        int taken = 0;
+        while (taken < words) {
+            if (stack.isEmpty() || taken + stack.get(stack.size() - 1).size > words) {
+                lost();
+                return null;
+            }
+            StackValue value = stack.remove(stack.size() - 1);
+            values.addFirst(value);
+            taken += value.size;
+        }
+        return values;
+    }
+
+    // the abstract stack no longer matches the real one: forget it and every expression keyed on it.
+    private void lost() {
+        stack.clear();
+        expressions.clear();
+    }
+
+    private void push(StackValue value) {
+        stack.add(value);
+    }
+
+    private int localNumber(int index) {
+        Integer number = localNumbers.get(index);
+        if (number == null) {
+            number = nextNumber++;
+            localNumbers.put(index, number);
+        }
+        return number;
+    }
+
+    private int constantNumber(Object value) {
+        Integer number = constantNumbers.get(value);
+        if (number == null) {
+            number = nextNumber++;
+            constantNumbers.put(value, number);
+            numberConstants.put(number, value);
+        }
+        return number;
+    }
+
+    /**
+     * Retrieves the value pushed by a numeric or string constant instruction.
+     *
+     * @param instruction the instruction to check.
+     * @param cpgen the constant pool of the class.
+     * @return the constant, or null if the instruction does not push a plain constant.
+     */
+    static Object constantValue(Instruction instruction, ConstantPoolGen cpgen) {
+        if (instruction instanceof ConstantPushInstruction) {
+            return ((ConstantPushInstruction) instruction).getValue();
+        } else if (instruction instanceof LDC2_W) {
+            return ((LDC2_W) instruction).getValue(cpgen);
+        } else if (instruction instanceof LDC) {
+            Constant constant = cpgen.getConstant(((LDC) instruction).getIndex());
+            if (constant instanceof ConstantInteger || constant instanceof ConstantFloat ||
+                constant instanceof ConstantString) {
+                return ((LDC) instruction).getValue(cpgen);
+            }
+        }
+        return null;
+    }
+
+    /**
+     * Builds the instruction pushing a numeric constant. BCEL's PUSH pushes -0.0 with the unsigned
+     * fconst_0/dconst_0, so negative zero is loaded from the constant pool instead.
+     *
+     * @param cpgen the constant pool of the class.
+     * @param value the constant.
+     * @return the instruction pushing exactly that value.
+     */
+    static Instruction pushConstant(ConstantPoolGen cpgen, Number value) {
+        if (value instanceof Float && Float.floatToRawIntBits((Float) value) == Float.floatToRawIntBits(-0.0f)) {
+            return new LDC(cpgen.addFloat((Float) value));
+        } else if (value instanceof Double &&
+            Double.doubleToRawLongBits((Double) value) == Double.doubleToRawLongBits(-0.0)) {
+            return new LDC2_W(cpgen.addDouble((Double) value));
+        }
+        return new PUSH(cpgen, value).getInstruction();
+    }
+
+    /**
+     * Checks if the instruction computes its result only from its stack operands, without side effects
+     * other than a possible ArithmeticException (which the first occurrence would already have thrown).
+     *
+     * @param instruction the instruction to check.
+     * @return true if the instruction can be value numbered.
+     */
+    static boolean isPureOperation(Instruction instruction) {
+        return instruction instanceof ArithmeticInstruction || instruction instanceof ConversionInstruction ||
+            isComparison(instruction);
+    }
+
+    static boolean isComparison(Instruction instruction) {
+        return instruction instanceof LCMP || instruction instanceof FCMPL || instruction instanceof FCMPG ||
+            instruction instanceof DCMPL || instruction instanceof DCMPG;
+    }
+
+    static boolean isUnary(Instruction instruction) {
+        return instruction instanceof ConversionInstruction || instruction instanceof INEG ||
+            instruction instanceof LNEG || instruction instanceof FNEG || instruction instanceof DNEG;
+    }
+
+    /**
+     * Computes the result of a pure operation on constant operands, as the JVM would.
+     *
+     * @param instruction the operation.
+     * @param first the first (or only) operand.
+     * @param second the second operand, null for unary operations.
+     * @return the result, or null if an operand is not a number or the operation would throw.
+     */
+    static Number evaluate(Instruction instruction, Object first, Object second) {
+        if (!(first instanceof Number) || (second != null && !(second instanceof Number)) ||
+            (second == null && !isUnary(instruction))) {
+            return null;
+        }
+        Number a = (Number) first;
+        Number b = (Number) second;
+        switch (instruction.getClass().getSimpleName()) {
+            case "IADD": return a.intValue() + b.intValue();
+            case "ISUB": return a.intValue() - b.intValue();
+            case "IMUL": return a.intValue() * b.intValue();
+            case "IDIV": return b.intValue() == 0 ? null : a.intValue() / b.intValue();
+            case "IREM": return b.intValue() == 0 ? null : a.intValue() % b.intValue();
+            case "INEG": return -a.intValue();
+            case "ISHL": return a.intValue() << b.intValue();
+            case "ISHR": return a.intValue() >> b.intValue();
+            case "IUSHR": return a.intValue() >>> b.intValue();
+            case "IAND": return a.intValue() & b.intValue();
+            case "IOR": return a.intValue() | b.intValue();
+            case "IXOR": return a.intValue() ^ b.intValue();
+            case "LADD": return a.longValue() + b.longValue();
+            case "LSUB": return a.longValue() - b.longValue();
+            case "LMUL": return a.longValue() * b.longValue();
+            case "LDIV": return b.longValue() == 0 ? null : a.longValue() / b.longValue();
+            case "LREM": return b.longValue() == 0 ? null : a.longValue() % b.longValue();
+            case "LNEG": return -a.longValue();
+            case "LSHL": return a.longValue() << b.intValue();
+            case "LSHR": return a.longValue() >> b.intValue();
+            case "LUSHR": return a.longValue() >>> b.intValue();
+            case "LAND": return a.longValue() & b.longValue();
+            case "LOR": return a.longValue() | b.longValue();
+            case "LXOR": return a.longValue() ^ b.longValue();
+            case "FADD": return a.floatValue() + b.floatValue();
+            case "FSUB": return a.floatValue() - b.floatValue();
+            case "FMUL": return a.floatValue() * b.floatValue();
+            case "FDIV": return a.floatValue() / b.floatValue();
+            case "FREM": return a.floatValue() % b.floatValue();
+            case "FNEG": return -a.floatValue();
+            case "DADD": return a.doubleValue() + b.doubleValue();
+            case "DSUB": return a.doubleValue() - b.doubleValue();
+            case "DMUL": return a.doubleValue() * b.doubleValue();
+            case "DDIV": return a.doubleValue() / b.doubleValue();
+            case "DREM": return a.doubleValue() % b.doubleValue();
+            case "DNEG": return -a.doubleValue();
+            case "I2L": case "F2L": case "D2L": return a.longValue();
+            case "I2F": case "L2F": case "D2F": return a.floatValue();
+            case "I2D": case "L2D": case "F2D": return a.doubleValue();
+            case "L2I": case "F2I": case "D2I": return a.intValue();
+            case "I2B": return (int) (byte) a.intValue();
+            case "I2C": return (int) (char) a.intValue();
+            case "I2S": return (int) (short) a.intValue();
+            case "LCMP": return Long.compare(a.longValue(), b.longValue());
+            case "FCMPL": case "FCMPG": return compare(a.doubleValue(), b.doubleValue(), instruction instanceof FCMPG);
+            case "DCMPL": case "DCMPG": return compare(a.doubleValue(), b.doubleValue(), instruction instanceof DCMPG);
+            default: return null;
+        }
+    }
+
+    // FCMPx/DCMPx: NaN compares as 1 for the G variants and -1 for the L variants.
+    private static int compare(double a, double b, boolean nanIsGreater) {
+        if (Double.isNaN(a) || Double.isNaN(b)) {
+            return nanIsGreater ? 1 : -1;
+        }
+        return a > b ? 1 : (a < b ? -1 : 0);
+    }
+
+    private Type resultType(Instruction instruction) {
+        return isComparison(instruction) ? Type.INT : ((TypedInstruction) instruction).getType(cpgen);
+    }
+}
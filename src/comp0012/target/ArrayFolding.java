@@ -0,0 +1,87 @@
+package comp0012.target;
+
+public class ArrayFolding
+{
+    private static final int[] PRIMES = {
+        2, 3, 5, 7, 11, 13, 17, 19, 23, 29, 31, 37,
+        41, 43, 47, 53, 59, 61, 67, 71, 73, 79, 83, 89,
+        97, 101, 103, 107, 109, 113, 127, 131, 137, 139, 149, 151,
+        157, 163, 167, 173, 179, 181, 191, 193, 197, 199, 211, 223
+    };
+
+    private static final short[] SQUARES = {
+        0, 19, 76, 171, 304, 475, 684, 931, 1216, 1539, 1900, 2299,
+        2736, 3211, 3724, 4275, 4864, 5491, 6156, 6859, 7600, 8379, 9196, 10051,
+        10944, 11875, 12844, 13851, 14896, 15979, 17100, 18259, 19456, 20691, 21964, 23275,
+        24624, 26011, 27436, 28899
+    };
+
+    private static final float[] HALVES = {
+        0.5f, 1.5f, 2.5f, 3.5f, 4.5f, 5.5f, 6.5f, 7.5f, 8.5f, 9.5f, 10.5f, 11.5f,
+        12.5f, 13.5f, 14.5f, 15.5f, 16.5f, 17.5f, 18.5f, 19.5f, 20.5f, 21.5f, 22.5f, 23.5f,
+        24.5f, 25.5f, 26.5f, 27.5f, 28.5f, 29.5f, 30.5f, 31.5f, 32.5f, 33.5f, 34.5f, 35.5f
+    };
+
+    private static final char[] VOWELS = {
+        'a', 'e', 'i', 'o', 'u', 'A', 'E', 'I', 'O', 'U',
+        'a', 'e', 'i', 'o', 'u', 'A', 'E', 'I', 'O', 'U',
+        'a', 'e', 'i', 'o', 'u', 'A', 'E', 'I', 'O', 'U',
+        'a', 'e', 'i', 'o', 'u', 'A', 'E', 'I', 'O', 'U'
+    };
+
+    public int methodOne(){
+        int[] a = {3, 5, 7, 9};
+        return a[0] + a[2] * a.length;
+    }
+
+    public int methodTwo(){
+        int[] a = new int[5];
+        a[1] = 10;
+        a[3] = 20;
+        return a[1] + a[3] + a[4] + a.length;
+    }
+
+    public int methodThree(){
+        byte[] b = {(byte) 200, 100};
+        return b[0] + b[1];
+    }
+
+    public long methodFour(){
+        long[] values = new long[6];
+        for (int i = 0; i < values.length; i++) {
+            values[i] = i * i;
+        }
+        long sum = values.length;
+        for (int i = 0; i < 6; i++) {
+            sum += values[i];
+        }
+        return sum;
+    }
+
+    public double methodFive(){
+        double[] d = {1.5, 2.25};
+        return d[0] * d[1] + d.length;
+    }
+
+    public double methodSix(){
+        double[] d = {-0.0, 1.0};
+        return d[0];
+    }
+
+    public long tableChecksum(){
+        long sum = 0;
+        for (int i = 0; i < PRIMES.length; i++) {
+            sum = sum * 31 + PRIMES[i];
+        }
+        for (int i = 0; i < SQUARES.length; i++) {
+            sum = sum * 31 + SQUARES[i];
+        }
+        for (int i = 0; i < HALVES.length; i++) {
+            sum = sum * 31 + (long) (HALVES[i] * 2);
+        }
+        for (int i = 0; i < VOWELS.length; i++) {
+            sum = sum * 31 + VOWELS[i];
+        }
+        return sum;
+    }
+}
@@ -0,0 +1,48 @@
+package comp0012.target;
+
+import java.util.ArrayList;
+import java.util.List;
+
+public class BoxingFolding
+{
+    public int methodOne(){
+        Integer boxed = 21;
+        return boxed * 2;
+    }
+
+    public long methodTwo(){
+        long total = 0;
+        for(int i = 0; i < 1000; i++){
+            Long step = (long) i;
+            total += step;
+        }
+        return total;
+    }
+
+    public double methodThree(){
+        Integer count = 3;
+        Double half = 0.5;
+        double result = count.doubleValue() * half;
+        return result + Integer.valueOf(7).longValue();
+    }
+
+    public int methodFour(){
+        List<Integer> values = new ArrayList<>();
+        Integer shared = 40;
+        values.add(shared);
+        return values.get(0) + shared + 2;
+    }
+
+    public short methodFive(){
+        Integer big = 70000;
+        return big.shortValue();
+    }
+
+    public int methodSix(){
+        Integer n = 5;
+        Integer[] boxes = {n, 7};
+        Integer[] copy = boxes.clone();
+        return copy[1] + n;
+    }
+
+}
@@ -0,0 +1,47 @@
+package comp0012.target;
+
+public class CommonSubexpression
+{
+    public int methodOne(){
+        int a = 17;
+        int b = 25;
+        int c = (a * b + 3) - (a * b + 3) / 4;
+        return c + a * b;
+    }
+
+    public long methodTwo(){
+        long x = 1000000007L;
+        long y = 7L;
+        return (x - y) * (x - y) + (x - y);
+    }
+
+    public double methodThree(){
+        int i = 7;
+        double d = i * 1.5;
+        return (i * 1.5) / d + (double) i;
+    }
+
+    public int methodFour(){
+        int a = 3;
+        int b = a + 4;
+        a = 10;
+        int c = a + 4;
+        return b * c;
+    }
+
+    public int methodFive(int a, int b, int c){
+        int y;
+        int r = b + (c + (y = a));
+        return r * 1000 + (b + c) * 10 + y;
+    }
+
+    public int methodSix(int a, int b, int x){
+        return (b - a) * x + (b - a);
+    }
+
+    public long methodSeven(long a, long b){
+        long sum = a * b + 1;
+        return sum * (a * b + 1) - a * b;
+    }
+
+}
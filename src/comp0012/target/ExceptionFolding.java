@@ -0,0 +1,79 @@
+package comp0012.target;
+
+public class ExceptionFolding
+{
+    public int methodSix(int a){
+        int r;
+        try {
+            r = 100 / a;
+        } catch (ArithmeticException e) {
+            r = -1;
+        }
+        return r;
+    }
+
+    public int methodSeven(int a){
+        return 10 / a;
+    }
+
+    public int methodOne(){
+        int result;
+        try {
+            int a = 12;
+            int b = 30;
+            result = a + b;
+        } catch (RuntimeException e) {
+            result = -1;
+        }
+        return result;
+    }
+
+    public int methodTwo(int divisor){
+        int a = 100;
+        int b = 5;
+        try {
+            return (a * b) / divisor;
+        } catch (ArithmeticException e) {
+            return a - b;
+        }
+    }
+
+    public int methodThree(){
+        int total = 0;
+        try {
+            for (int i = 0; i < 4; i++) {
+                total += i * 10;
+            }
+        } finally {
+            total += 1;
+        }
+        return total;
+    }
+
+    public String methodFour(){
+        String log = "";
+        int step = 3;
+        try {
+            log += step * 2;
+            throw new IllegalStateException("stop");
+        } catch (IllegalStateException e) {
+            log += e.getMessage();
+        } finally {
+            log += step + 1;
+        }
+        return log;
+    }
+
+    public long methodFive(){
+        long product = 1;
+        for (int i = 1; i <= 5; i++) {
+            try {
+                product *= i;
+            } catch (RuntimeException e) {
+                product = 0;
+            }
+        }
+        return product;
+    }
+
+}
@@ -0,0 +1,47 @@
+package comp0012.target;
+
+public class InlineFolding
+{
+    private int base = 7;
+
+    private static int square(int x){
+        return x * x;
+    }
+
+    private int offset(int x){
+        return x + 3;
+    }
+
+    private int scaled(int x){
+        return base * x;
+    }
+
+    private static long widen(int x, long y){
+        return x + y;
+    }
+
+    public int methodOne(){
+        return square(6) + square(2);
+    }
+
+    public int methodTwo(){
+        return offset(square(4));
+    }
+
+    public int methodThree(){
+        return scaled(6);
+    }
+
+    public long methodFour(){
+        return widen(3, 4000000000L);
+    }
+
+    public int methodFive(int n){
+        int total = 0;
+        for (int i = 0; i < n; i++) {
+            total += offset(i);
+        }
+        return total;
+    }
+
+}
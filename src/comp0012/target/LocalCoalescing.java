@@ -0,0 +1,40 @@
+package comp0012.target;
+
+public class LocalCoalescing
+{
+    public int methodOne(){
+        int a = 7;
+        int b = a;
+        int c = b;
+        return c * 6;
+    }
+
+    public long methodTwo(){
+        return sumTo(200);
+    }
+
+    private long sumTo(int n){
+        if(n == 0){
+            return 0;
+        }
+        int first = n;
+        long widened = first;
+        int second = first - 1;
+        long rest = sumTo(second);
+        return widened + rest;
+    }
+
+    public double methodThree(){
+        double x = 1.5;
+        long y = 4;
+        double total = x;
+        for(int i = 0; i < 3; i++){
+            double step = x * i;
+            total += step;
+        }
+        long z = y * 2;
+        double w = total;
+        return w + z;
+    }
+
+}
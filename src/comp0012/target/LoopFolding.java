@@ -0,0 +1,59 @@
+package comp0012.target;
+
+public class LoopFolding
+{
+    public int methodOne(){
+        int sum = 0;
+        for(int i = 0; i < 10; i++){
+            sum += i * 3;
+        }
+        return sum;
+    }
+
+    public int methodTwo(){
+        int a = 534245;
+        int b = a - 1234;
+        int total = 0;
+        for(int i = 0; i < 100; i++){
+            total += (b - a) * i;
+        }
+        return total;
+    }
+
+    public long methodThree(){
+        long x = 12L;
+        long y = 30L;
+        long product = 1;
+        int n = 0;
+        while(n < 25){
+            for(int j = 20; j > 0; j -= 4){
+                product += (x * y) + j;
+            }
+            n++;
+        }
+        return product;
+    }
+
+    public double methodFour(){
+        double scale = 2.5;
+        double acc = 0;
+        for(int i = 0; i < 4; i++){
+            System.out.println(i);
+            acc += scale * scale;
+        }
+        return acc;
+    }
+
+    public int methodFive(int[] data){
+        int i = -1;
+        try{
+            for(i = 0; i < 5; i++){
+                data[i] = data[i] + 1;
+            }
+        } catch(ArrayIndexOutOfBoundsException e){
+            return i;
+        }
+        return -1;
+    }
+
+}
@@ -0,0 +1,35 @@
+package comp0012.target;
+
+public class PeepholeFolding
+{
+    public int methodOne(int a){
+        int tripled = a * 3;
+        return tripled + 1;
+    }
+
+    public long methodTwo(){
+        long one = 1L;
+        long kilo = 1024;
+        long big = one * kilo * kilo * kilo * kilo;
+        return big - 1;
+    }
+
+    public int methodThree(int a){
+        int b = a;
+        b = b;
+        b += 5;
+        return b;
+    }
+
+    public float methodFour(){
+        float half = 0.5f;
+        float scaled = half * 9;
+        return scaled;
+    }
+
+    public long methodFive(){
+        int code = 65 + 1;
+        return (long) code;
+    }
+
+}
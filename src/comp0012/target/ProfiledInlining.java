@@ -0,0 +1,32 @@
+package comp0012.target;
+
+public class ProfiledInlining
+{
+    private static int square(int x){
+        return x * x;
+    }
+
+    public int hot(int n){
+        int sum = 0;
+        for(int i = 0; i < n; i++){
+            sum += square(i) % 7;
+        }
+        return sum;
+    }
+
+    public int cold(int n){
+        return square(n) + 1;
+    }
+
+    /**
+     * The workload recorded for the profile: only hot() runs, for about a second.
+     */
+    public static void main(String[] args){
+        ProfiledInlining pi = new ProfiledInlining();
+        int total = 0;
+        for(int round = 0; round < 10000; round++){
+            total += pi.hot(100000);
+        }
+        System.out.println(total);
+    }
+}
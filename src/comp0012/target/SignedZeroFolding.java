@@ -0,0 +1,26 @@
+package comp0012.target;
+
+public class SignedZeroFolding
+{
+    public float methodOne(){
+        float x = 0f;
+        return -x;
+    }
+
+    public double methodTwo(){
+        double x = 0.0;
+        return -x;
+    }
+
+    public double methodThree(){
+        double a = -1.0;
+        double b = 0.0;
+        return a * b;
+    }
+
+    public float methodFour(){
+        float a = -0f;
+        float b = 0f;
+        return a - b;
+    }
+}
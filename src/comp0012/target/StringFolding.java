@@ -0,0 +1,21 @@
+package comp0012.target;
+
+public class StringFolding
+{
+    public String methodOne(){
+        int a = 6;
+        int b = 7;
+        return "v=" + ((a * b) + (a * b));
+    }
+
+    public String methodTwo(int x){
+        int scale = 4;
+        return "x*" + scale + "=" + x * scale;
+    }
+
+    public String methodThree(String name){
+        String greeting = "Hello, " + name;
+        long big = 1L << 40;
+        return greeting + "! " + (big + big);
+    }
+}
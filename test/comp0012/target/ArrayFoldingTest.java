@@ -0,0 +1,49 @@
+package comp0012.target;
+
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+
+/**
+ * Test folding of constant arrays and packing of constant array initialisers
+ */
+public class ArrayFoldingTest {
+
+    ArrayFolding af = new ArrayFolding();
+
+    @Test
+    public void testMethodOne(){
+        assertEquals(31, af.methodOne());
+    }
+
+    @Test
+    public void testMethodTwo(){
+        assertEquals(35, af.methodTwo());
+    }
+
+    @Test
+    public void testMethodThree(){
+        assertEquals(44, af.methodThree());
+    }
+
+    @Test
+    public void testMethodFour(){
+        assertEquals(61L, af.methodFour());
+    }
+
+    @Test
+    public void testMethodFive(){
+        assertEquals(5.375, af.methodFive(), 0.0);
+    }
+
+    @Test
+    public void testMethodSix(){
+        assertEquals(Double.NEGATIVE_INFINITY, 1 / af.methodSix(), 0.0);
+    }
+
+    @Test
+    public void testTableChecksum(){
+        assertEquals(-8989157370244385081L, af.tableChecksum());
+    }
+
+}
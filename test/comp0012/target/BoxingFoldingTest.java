@@ -0,0 +1,44 @@
+package comp0012.target;
+
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+
+/**
+ * Test boxing elimination
+ */
+public class BoxingFoldingTest {
+
+    BoxingFolding bf = new BoxingFolding();
+
+    @Test
+    public void testMethodOne(){
+        assertEquals(42, bf.methodOne());
+    }
+
+    @Test
+    public void testMethodTwo(){
+        assertEquals(499500L, bf.methodTwo());
+    }
+
+    @Test
+    public void testMethodThree(){
+        assertEquals(8.5, bf.methodThree(), 0.001);
+    }
+
+    @Test
+    public void testMethodFour(){
+        assertEquals(82, bf.methodFour());
+    }
+
+    @Test
+    public void testMethodFive(){
+        assertEquals((short) 70000, bf.methodFive());
+    }
+
+    @Test
+    public void testMethodSix(){
+        assertEquals(12, bf.methodSix());
+    }
+
+}
@@ -0,0 +1,49 @@
+package comp0012.target;
+
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+
+/**
+ * Test common subexpression elimination
+ */
+public class CommonSubexpressionTest {
+
+    CommonSubexpression cs = new CommonSubexpression();
+
+    @Test
+    public void testMethodOne(){
+        assertEquals(746, cs.methodOne());
+    }
+
+    @Test
+    public void testMethodTwo(){
+        assertEquals(1000000001000000000L, cs.methodTwo());
+    }
+
+    @Test
+    public void testMethodThree(){
+        assertEquals(8.0, cs.methodThree(), 0.001);
+    }
+
+    @Test
+    public void testMethodFour(){
+        assertEquals(98, cs.methodFour());
+    }
+
+    @Test
+    public void testMethodFive(){
+        assertEquals(6051, cs.methodFive(1, 2, 3));
+    }
+
+    @Test
+    public void testMethodSix(){
+        assertEquals(28, cs.methodSix(3, 7, 6));
+    }
+
+    @Test
+    public void testMethodSeven(){
+        assertEquals(43L, cs.methodSeven(2, 3));
+    }
+
+}
@@ -0,0 +1,56 @@
+package comp0012.target;
+
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+
+/**
+ * Test optimisation of methods with exception handlers
+ */
+public class ExceptionFoldingTest {
+
+    ExceptionFolding ef = new ExceptionFolding();
+
+    @Test
+    public void testMethodOne(){
+        assertEquals(42, ef.methodOne());
+    }
+
+    @Test
+    public void testMethodTwo(){
+        assertEquals(50, ef.methodTwo(10));
+        assertEquals(95, ef.methodTwo(0));
+    }
+
+    @Test
+    public void testMethodThree(){
+        assertEquals(61, ef.methodThree());
+    }
+
+    @Test
+    public void testMethodFour(){
+        assertEquals("6stop4", ef.methodFour());
+    }
+
+    @Test
+    public void testMethodFive(){
+        assertEquals(120L, ef.methodFive());
+    }
+
+    @Test
+    public void testMethodSix(){
+        assertEquals(25, ef.methodSix(4));
+        assertEquals(-1, ef.methodSix(0));
+    }
+
+    @Test
+    public void testMethodSeven(){
+        assertEquals(5, ef.methodSeven(2));
+    }
+
+    @Test(expected = ArithmeticException.class)
+    public void testMethodSevenByZero(){
+        ef.methodSeven(0);
+    }
+
+}
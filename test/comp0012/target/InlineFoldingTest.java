@@ -0,0 +1,39 @@
+package comp0012.target;
+
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+
+/**
+ * Test inlining of small methods
+ */
+public class InlineFoldingTest {
+
+    InlineFolding inf = new InlineFolding();
+
+    @Test
+    public void testMethodOne(){
+        assertEquals(40, inf.methodOne());
+    }
+
+    @Test
+    public void testMethodTwo(){
+        assertEquals(19, inf.methodTwo());
+    }
+
+    @Test
+    public void testMethodThree(){
+        assertEquals(42, inf.methodThree());
+    }
+
+    @Test
+    public void testMethodFour(){
+        assertEquals(4000000003L, inf.methodFour());
+    }
+
+    @Test
+    public void testMethodFive(){
+        assertEquals(18, inf.methodFive(4));
+    }
+
+}
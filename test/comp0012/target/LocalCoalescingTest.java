@@ -0,0 +1,29 @@
+package comp0012.target;
+
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+
+/**
+ * Test copy propagation and local slot coalescing
+ */
+public class LocalCoalescingTest {
+
+    LocalCoalescing lc = new LocalCoalescing();
+
+    @Test
+    public void testMethodOne(){
+        assertEquals(42, lc.methodOne());
+    }
+
+    @Test
+    public void testMethodTwo(){
+        assertEquals(20100L, lc.methodTwo());
+    }
+
+    @Test
+    public void testMethodThree(){
+        assertEquals(14.0, lc.methodThree(), 0.001);
+    }
+
+}
@@ -0,0 +1,65 @@
+package comp0012.target;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.ByteArrayOutputStream;
+import java.io.PrintStream;
+
+import static org.junit.Assert.assertEquals;
+
+/**
+ * Test loop unrolling and loop-invariant code motion
+ */
+public class LoopFoldingTest {
+
+    LoopFolding lf = new LoopFolding();
+    private final ByteArrayOutputStream outContent = new ByteArrayOutputStream();
+
+    @Before
+    public void setUpStreams()
+    {
+        System.setOut(new PrintStream(outContent));
+    }
+
+    @After
+    public void cleanUpStreams()
+    {
+        System.setOut(null);
+    }
+
+    @Test
+    public void testMethodOne(){
+        assertEquals(135, lf.methodOne());
+    }
+
+    @Test
+    public void testMethodTwo(){
+        assertEquals(-6108300, lf.methodTwo());
+    }
+
+    @Test
+    public void testMethodThree(){
+        assertEquals(46501L, lf.methodThree());
+    }
+
+    @Test
+    public void testMethodFourReturn(){
+        assertEquals(25.0, lf.methodFour(), 0.001);
+    }
+
+    @Test
+    public void testMethodFourOut(){
+        lf.methodFour();
+        assertEquals("0\n1\n2\n3\n", outContent.toString());
+    }
+
+    @Test
+    public void testMethodFive(){
+        int[] data = new int[3];
+        assertEquals(3, lf.methodFive(data));
+        assertEquals(1, data[2]);
+    }
+
+}
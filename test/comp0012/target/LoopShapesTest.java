@@ -0,0 +1,19 @@
+package comp0012.target;
+
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+
+/**
+ * Test loop optimisations on loop shapes javac does not emit
+ */
+public class LoopShapesTest {
+
+    LoopShapes ls = new LoopShapes();
+
+    @Test
+    public void testBottomTested(){
+        assertEquals(30, ls.bottomTested(2, 3));
+    }
+
+}
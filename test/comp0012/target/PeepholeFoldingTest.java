@@ -0,0 +1,39 @@
+package comp0012.target;
+
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+
+/**
+ * Test peephole rules
+ */
+public class PeepholeFoldingTest {
+
+    PeepholeFolding pf = new PeepholeFolding();
+
+    @Test
+    public void testMethodOne(){
+        assertEquals(31, pf.methodOne(10));
+    }
+
+    @Test
+    public void testMethodTwo(){
+        assertEquals(1099511627775L, pf.methodTwo());
+    }
+
+    @Test
+    public void testMethodThree(){
+        assertEquals(12, pf.methodThree(7));
+    }
+
+    @Test
+    public void testMethodFour(){
+        assertEquals(4.5f, pf.methodFour(), 0.0001f);
+    }
+
+    @Test
+    public void testMethodFive(){
+        assertEquals(66L, pf.methodFive());
+    }
+
+}
@@ -0,0 +1,65 @@
+package comp0012.target;
+
+import org.apache.bcel.classfile.ClassParser;
+import org.apache.bcel.classfile.JavaClass;
+import org.apache.bcel.classfile.Method;
+import org.apache.bcel.generic.ConstantPoolGen;
+import org.apache.bcel.generic.InstructionHandle;
+import org.apache.bcel.generic.InstructionList;
+import org.apache.bcel.generic.InvokeInstruction;
+import org.junit.Test;
+
+import java.io.IOException;
+import java.io.InputStream;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assume.assumeTrue;
+
+/**
+ * Test optimisation guided by a recorded profile: ant test.profiled optimises with the profile of
+ * ProfiledInlining.main, where only hot() runs, so only hot() gets its call inlined.
+ */
+public class ProfiledInliningTest {
+
+    ProfiledInlining pi = new ProfiledInlining();
+
+    @Test
+    public void testHot(){
+        assertEquals(19, pi.hot(10));
+    }
+
+    @Test
+    public void testCold(){
+        assertEquals(17, pi.cold(4));
+    }
+
+    @Test
+    public void testInliningFollowsProfile() throws IOException {
+        assumeTrue(Boolean.getBoolean("comp0012.profiled"));
+        JavaClass optimised;
+        try (InputStream in = ProfiledInlining.class.getResourceAsStream("ProfiledInlining.class")) {
+            optimised = new ClassParser(in, "ProfiledInlining.class").parse();
+        }
+        assertFalse(calls(optimised, "hot", "square"));
+        assertTrue(calls(optimised, "cold", "square"));
+    }
+
+    private static boolean calls(JavaClass javaClass, String caller, String callee) {
+        ConstantPoolGen cpgen = new ConstantPoolGen(javaClass.getConstantPool());
+        for (Method method : javaClass.getMethods()) {
+            if (!method.getName().equals(caller)) {
+                continue;
+            }
+            for (InstructionHandle handle : new InstructionList(method.getCode().getCode()).getInstructionHandles()) {
+                if (handle.getInstruction() instanceof InvokeInstruction &&
+                    ((InvokeInstruction) handle.getInstruction()).getMethodName(cpgen).equals(callee)) {
+                    return true;
+                }
+            }
+        }
+        return false;
+    }
+
+}
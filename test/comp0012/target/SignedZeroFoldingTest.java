@@ -0,0 +1,34 @@
+package comp0012.target;
+
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+
+/**
+ * Test folding keeps the sign of zero results
+ */
+public class SignedZeroFoldingTest {
+
+    SignedZeroFolding sz = new SignedZeroFolding();
+
+    @Test
+    public void testMethodOne(){
+        assertEquals(Float.NEGATIVE_INFINITY, 1 / sz.methodOne(), 0);
+    }
+
+    @Test
+    public void testMethodTwo(){
+        assertEquals(Double.NEGATIVE_INFINITY, 1 / sz.methodTwo(), 0);
+    }
+
+    @Test
+    public void testMethodThree(){
+        assertEquals(Double.NEGATIVE_INFINITY, 1 / sz.methodThree(), 0);
+    }
+
+    @Test
+    public void testMethodFour(){
+        assertEquals(Float.NEGATIVE_INFINITY, 1 / sz.methodFour(), 0);
+    }
+
+}
@@ -0,0 +1,29 @@
+package comp0012.target;
+
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+
+/**
+ * Test folding in methods that concatenate strings
+ */
+public class StringFoldingTest {
+
+    StringFolding sf = new StringFolding();
+
+    @Test
+    public void testMethodOne(){
+        assertEquals("v=84", sf.methodOne());
+    }
+
+    @Test
+    public void testMethodTwo(){
+        assertEquals("x*4=20", sf.methodTwo(5));
+    }
+
+    @Test
+    public void testMethodThree(){
+        assertEquals("Hello, Ada! 2199023255552", sf.methodThree("Ada"));
+    }
+
+}